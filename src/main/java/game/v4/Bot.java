@@ -5,19 +5,32 @@ import util.BoardUtil;
 import java.util.ArrayList;
 
 public class Bot {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // kept from one move to the next, only cleared for a new game
+    private final TranspositionTable table;
     private Manager manager;
     private boolean isGameOver;
+    // played from while the game is in it, none unless one is given
+    private OpeningBook book;
 
     public Bot() {
+        table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
         resetBot();
     }
 
     public Bot(String fen) {
+        table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
         resetBot(fen);
     }
 
     public Move playBotMove() {
-        Move move = manager.playBotMove();
+        return playBotMove(SearchLimits.of(Engine.MAX_DEPTH, Engine.DEFAULT_MOVE_TIME));
+    }
+
+    // plays on the clock, e.g. limits.whiteTime / blackTime with the remaining time in milliseconds
+    public Move playBotMove(SearchLimits limits) {
+        Move move = manager.playBotMove(limits);
         if (move.startSquare < 0) {
             System.out.println(move.startSquare);
             isGameOver = true;
@@ -43,15 +56,20 @@ public class Bot {
     }
 
     public void resetBot() {
-        manager = new Manager();
-        isGameOver = false;
+        resetBot(START_FEN);
     }
 
     public void resetBot(String fen) {
-        manager = new Manager(fen);
+        table.clear();
+        manager = new Manager(fen, table, book);
         isGameOver = false;
     }
 
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+        manager.book = book;
+    }
+
     public boolean hasGameEnded() {
         return isGameOver;
     }
@@ -3,132 +3,634 @@ package game.v4;
 import util.BoardUtil;
 import util.PieceUtil;
 
+import jdk.jfr.FlightRecorder;
+
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Engine {
+    public static final int MAX_PLY = 256;
+    public static final int MAX_DEPTH = 100;
+    public static final int MAX_THREADS = 256;
+
     private final Manager manager;
     private final MoveGenerator generator;
+    private final StaticExchange staticExchange;
     public TranspositionTable table;
     public Zobrist zobrist;
     private final Evaluator evaluator;
-    public Stack<MoveInfo> previousMoves;
-    public HashMap<Long, Integer> repeatedPositions;
+    private final TablebaseProber tablebaseProber;
+    public MoveInfo[] previousMoves;
+    public int previousMoveCnt;
+
+    // keys of the game and search positions, the current one at historyPly, for repetition checks without allocating
+    private final long[] positionKeys;
+    private int historyPly;
 
     private final int MAX_EVAL = (int)1e8;
-    private final int CHECKMATE_EVAL = (int)1e6;
+    public static final int CHECKMATE_EVAL = (int)1e6;
+    // a win the tables know, scored below every mate the search finds
+    public static final int TABLEBASE_WIN_EVAL = CHECKMATE_EVAL - MAX_PLY - 1;
+
+    // one move buffer per ply so the search never allocates move lists
+    private final int[][] moveBuffers;
+    private final MovePicker[] movePickers;
+    // quiet moves that caused a beta cut off, two per ply
+    private final int[][] killerMoves;
+    // how often quiet moves cut off, indexed by side, start and target square, kept between searches but aged
+    private final int[][][] historyScores;
+    // the quiet move that last refuted a move, indexed by its start and target square
+    private final int[][] counterMoves;
+    // the move played at every ply of the search, and the quiet moves tried at every ply
+    private final int[] searchMoves;
+    private final int[][] searchedQuiets;
+    private static final int MAX_HISTORY = 8192;
+    private static final int HISTORY_AGING_SHIFT = 1;
+
+    // null move pruning : the reduction grows with depth, deep cut offs are verified by a search without null moves
+    private static final int NULL_MOVE_MIN_DEPTH = 3;
+    private static final int NULL_MOVE_REDUCTION = 3;
+    private static final int NULL_MOVE_VERIFICATION_DEPTH = 10;
+    // plies below this one may not try a null move, raised while a verification search runs
+    private int nullMoveMinPly;
+
+    // quiescence : captures whose victim plus this margin can't reach alpha are skipped. quiet checks at the first ply
+    // cost more time than they save, they stay off unless the evaluation changes that
+    private static final int DELTA_MARGIN = 200;
+    private static final boolean QUIESCENCE_CHECKS = false;
+
+    // iterations after the first few search a window around the previous score, widened when the score falls outside
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    private static final int ASPIRATION_WINDOW = 25;
+
+    // late move reductions : quiet moves far down the ordered list are searched less deep, indexed by depth and move number
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_MIN_MOVES = 3;
+    private static final int[][] LMR_REDUCTIONS = new int[MAX_DEPTH + 1][MoveGenerator.MAX_MOVES];
+    static {
+        for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+            for (int moveNumber = 1; moveNumber < MoveGenerator.MAX_MOVES; moveNumber++) {
+                LMR_REDUCTIONS[depth][moveNumber] = (int)(0.75 + Math.log(depth) * Math.log(moveNumber) / 2.25);
+            }
+        }
+    }
 
-    private Move bestMove;
-    private Move bestMoveThisIteration;
+    private int bestMove;
+    private int bestEval;
+    private int completedDepth;
+    private int bestMoveThisIteration;
     private int bestEvalThisIteration;
+    private long nodes;
+    private SearchStats stats;
 
     private boolean searchCancelled;
+    private volatile boolean stopRequested;
+    private final TimeManager timeManager;
     private long searchEndTime;
-    private final long searchTimeAllowed = 1000;
+    private long nodeLimit;
+    private SearchListener listener;
+
+    public static final long DEFAULT_MOVE_TIME = 1000;
+    // reading the clock costs more than searching a node, so it's only done every few thousand nodes
+    private static final int TIME_CHECK_NODES = 2048;
+    private long nextTimeCheck;
+
+    // lazy smp : helper threads search the same root on their own copy of the position and share the table
+    private int threadCnt;
+    private ExecutorService helperPool;
+    private Manager[] helpers;
+
+    // helper threads skip some depths so they spread over different iterations
+    private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
 
     public Engine(Manager manager) {
-        bestMove = null;
+        this(manager, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+    }
+
+    public Engine(Manager manager, TranspositionTable table) {
+        bestMove = Move.NONE;
         this.manager = manager;
-        table = new TranspositionTable(1 << 20);
-        zobrist = new Zobrist(manager.board, manager.castleRights, manager.epSquare);
+        this.table = table;
+        zobrist = new Zobrist(manager.board, manager.castleRights, manager.epSquare, manager.whiteToMove);
         generator = new MoveGenerator(manager);
+        staticExchange = new StaticExchange(manager);
         evaluator = new Evaluator(manager);
-        previousMoves = new Stack<>();
-        repeatedPositions = new HashMap<>();
+        tablebaseProber = new TablebaseProber(manager, this, generator);
+        previousMoves = new MoveInfo[MAX_PLY];
+        for (int i = 0; i < MAX_PLY; i++) {
+            previousMoves[i] = new MoveInfo(manager.epSquare, manager.castleRights, manager.halfMoveClock);
+        }
+        previousMoveCnt = 0;
+        positionKeys = new long[MAX_PLY * 2];
+        positionKeys[0] = zobrist.hash;
+        historyPly = 0;
+        moveBuffers = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+        movePickers = new MovePicker[MAX_PLY];
+        for (int i = 0; i < MAX_PLY; i++) {
+            movePickers[i] = new MovePicker(manager, generator, staticExchange, moveBuffers[i]);
+        }
+        killerMoves = new int[MAX_PLY][2];
+        historyScores = new int[2][64][64];
+        counterMoves = new int[64][64];
+        searchMoves = new int[MAX_PLY];
+        searchedQuiets = new int[MAX_PLY][64];
+        threadCnt = 1;
+        timeManager = new TimeManager();
+        stats = new SearchStats();
+        nodeLimit = Long.MAX_VALUE;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1 || threads > MAX_THREADS) {
+            throw new IllegalArgumentException("Thread count must be between 1 and " + MAX_THREADS + " : " + threads);
+        }
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+            helperPool = null;
+        }
+
+        threadCnt = threads;
+        helpers = null;
+        if (threads > 1) {
+            helperPool = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // built once, each search only hands them the root position so they keep their history and pawn table
+            helpers = new Manager[threads - 1];
+            for (int i = 0; i < helpers.length; i++) {
+                helpers[i] = new Manager(manager, table);
+            }
+        }
+    }
+
+    public int getThreads() {
+        return threadCnt;
     }
 
     public Move getBestMove() {
-        bestMove = null;
+        return getBestMove(MAX_DEPTH, DEFAULT_MOVE_TIME);
+    }
+
+    public Move getBestMove(int maxDepth, long timeAllowed) {
+        return getBestMove(SearchLimits.of(maxDepth, timeAllowed));
+    }
+
+    public Move getBestMove(SearchLimits limits) {
+        return search(limits).move;
+    }
+
+    public SearchResult search(SearchLimits limits) {
+        // the event classes are only loaded once flight recording runs, see TranspositionTable
+        if (!FlightRecorder.isInitialized()) {
+            return runSearch(limits);
+        }
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        SearchResult result = runSearch(limits);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.bestMove = result.move.startSquare >= 0 ? BoardUtil.getUCINotation(result.move) : "none";
+            event.depth = result.depth;
+            event.nodes = result.stats.nodes;
+            event.threads = threadCnt;
+            event.stopReason = result.stats.stopReason.name();
+            if (timeManager.isTimeLimited()) {
+                event.softLimit = timeManager.getSoftLimit();
+                event.hardLimit = timeManager.getHardLimit();
+                event.overshoot = Math.max(0, result.stats.timeMs - timeManager.getHardLimit());
+            }
+            event.commit();
+        }
+        return result;
+    }
+
+    private SearchResult runSearch(SearchLimits limits) {
+        stopRequested = false;
+        timeManager.start(limits, manager.whiteToMove);
+        searchEndTime = timeManager.getDeadline();
+        nodeLimit = limits.getNodes();
+
+        // nothing to think about with a single legal move, the time is better spent later
+        if (timeManager.isTimeLimited()) {
+            int[] rootMoves = moveBuffers[0];
+            if (generator.getLegalMoves(rootMoves, false) == 1) {
+                bestMove = rootMoves[0];
+                completedDepth = 0;
+                stats = new SearchStats();
+                stats.stopReason = SearchStats.StopReason.SINGLE_MOVE;
+                return new SearchResult(new Move(bestMove), 0, 0, stats);
+            }
+        }
+
+        // with few enough pieces the tables rank the moves : a won or lost position plays the fastest win or the longest
+        // defence right away, a drawn one is searched and keeps a drawing move
+        boolean tablebaseRoot = tablebaseProber.canProbe() && tablebaseProber.rankRootMoves();
+        if (tablebaseRoot && tablebaseProber.getBestRootRank() != 0) {
+            bestMove = tablebaseProber.getBestRootMove();
+            bestEval = tablebaseProber.getBestRootScore();
+            completedDepth = 0;
+            stats = new SearchStats();
+            stats.tablebaseHits++;
+            stats.stopReason = SearchStats.StopReason.TABLEBASE;
+            stats.timeMs = timeManager.getElapsed();
+            return new SearchResult(new Move(bestMove), bestEval, 0, stats);
+        }
+        table.newSearch();
+
+        List<Future<?>> helperSearches = startHelpers();
+        iterativeDeepening(0, limits.getDepth());
+        stopHelpers(helperSearches);
+
+        // the main thread keeps its own move unless a helper finished a deeper iteration
+        int move = bestMove, eval = bestEval, depth = completedDepth;
+        if (helpers != null) {
+            for (int i = 0; i < helperSearches.size(); i++) {
+                Engine helper = helpers[i].engine;
+                if (helper.completedDepth > depth && helper.bestMove != Move.NONE) {
+                    move = helper.bestMove;
+                    eval = helper.bestEval;
+                    depth = helper.completedDepth;
+                }
+                stats.add(helper.stats);
+            }
+        }
+        stats.timeMs = timeManager.getElapsed();
+
+        // a drawn root stays a draw whatever the evaluation thinks of the move the search kept
+        if (tablebaseRoot && move != Move.NONE) {
+            if (tablebaseProber.getRootRank(move) < tablebaseProber.getBestRootRank()) {
+                move = tablebaseProber.getBestRootMove();
+            }
+            eval = tablebaseProber.getBestRootScore();
+        }
+        if (move == Move.NONE) {
+            if (!generator.isChecked) return new SearchResult(new Move((byte)-3, (byte)0, (byte)0, 0), 0, depth, stats);
+            else return new SearchResult(new Move((byte)(manager.whiteToMove ? -2 : -1), (byte)0, (byte)0, 0), 0, depth, stats);
+        }
+        return new SearchResult(new Move(move), eval, depth, stats);
+    }
+
+    // can be called from another thread, the search returns its best move so far
+    public void stopSearch() {
+        stopRequested = true;
+    }
+
+    public void setSearchListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    public long getNodes() {
+        long totalNodes = nodes;
+        if (helpers != null) {
+            for (Manager helper : helpers) {
+                totalNodes += helper.engine.nodes;
+            }
+        }
+        return totalNodes;
+    }
+
+    public MoveGenerator getMoveGenerator() {
+        return generator;
+    }
+
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public PawnTable getPawnTable() {
+        return evaluator.pawnTable;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    private List<Future<?>> startHelpers() {
+        List<Future<?>> helperSearches = new ArrayList<>();
+        if (threadCnt == 1) {
+            return helperSearches;
+        }
+
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i].copyPosition(manager);
+            Engine helper = helpers[i].engine;
+            helper.table = table;
+            helper.searchEndTime = searchEndTime;
+            helper.stopRequested = false;
+
+            int threadId = i + 1;
+            helperSearches.add(helperPool.submit(() -> helper.iterativeDeepening(threadId, MAX_DEPTH)));
+        }
+        return helperSearches;
+    }
+
+    private void stopHelpers(List<Future<?>> helperSearches) {
+        for (int i = 0; i < helperSearches.size(); i++) {
+            helpers[i].engine.stopRequested = true;
+        }
+        for (Future<?> helperSearch : helperSearches) {
+            try {
+                helperSearch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Helper search failed : " + e.getCause());
+            }
+        }
+    }
+
+    private void iterativeDeepening(int threadId, int maxDepth) {
+        bestMove = Move.NONE;
+        bestEval = 0;
+        completedDepth = 0;
+        nodes = 0;
+        nextTimeCheck = 0;
         searchCancelled = false;
-        searchEndTime = searchTimeAllowed + System.currentTimeMillis();
-        table.clear();
+        stats = new SearchStats();
+        for (int[] killers : killerMoves) {
+            Arrays.fill(killers, Move.NONE);
+        }
+        ageHistory();
+        nullMoveMinPly = 0;
+
+        long lastIterationTime = 0;
+        for (int currentDepth = 1; currentDepth <= maxDepth && !searchCancelled; currentDepth++) {
+            int skip = (threadId - 1) % SKIP_SIZE.length;
+            if (threadId > 0 && ((currentDepth + SKIP_PHASE[skip]) / SKIP_SIZE[skip]) % 2 != 0) {
+                continue;
+            }
+            // helpers don't manage time, they stop with the main thread
+            if (threadId == 0 && completedDepth > 0 && !timeManager.shouldStartIteration(lastIterationTime)) {
+                stats.stopReason = SearchStats.StopReason.SOFT_LIMIT;
+                break;
+            }
 
-        int currentDepth = 1, bestEval = 0;
-        while (!searchCancelled) {
+            IterationEvent iterationEvent = threadId == 0 ? beginIterationEvent() : null;
             bestEvalThisIteration = 0;
-            bestMoveThisIteration = null;
+            bestMoveThisIteration = Move.NONE;
+            long iterationStartTime = System.currentTimeMillis();
+            long iterationStartNodes = nodes;
 
-            findBestMove(currentDepth++, 0, -MAX_EVAL, MAX_EVAL);
-            if (searchCancelled) break;
+            searchWithAspiration(currentDepth);
+            if (searchCancelled) {
+                // the previous best move is searched first, so a move found before the cut off is at least as good
+                if (bestMoveThisIteration != Move.NONE) {
+                    bestMove = bestMoveThisIteration;
+                    bestEval = bestEvalThisIteration;
+                }
+                break;
+            }
 
             bestEval = bestEvalThisIteration;
-            if (bestMoveThisIteration != null) {
+            completedDepth = currentDepth;
+            if (bestMoveThisIteration != Move.NONE) {
                 bestMove = bestMoveThisIteration;
             }
+            lastIterationTime = System.currentTimeMillis() - iterationStartTime;
+            stats.iterationNodes[currentDepth] = nodes - iterationStartNodes;
+            stats.iterationTimes[currentDepth] = lastIterationTime;
+            stats.completedDepth = currentDepth;
+            if (threadId == 0) {
+                commitIterationEvent(iterationEvent, currentDepth);
+            }
+            if (threadId == 0 && listener != null) {
+                listener.onIteration(currentDepth, bestEval, getNodes(), timeManager.getElapsed(), getPrincipalVariation());
+            }
         }
+        stats.nodes = nodes;
+    }
 
-//        if (bestMove != null)
-//            System.out.println("For depth " + (currentDepth - 1) + " best move for " + manager.getPlayer().getName() + " (" + BoardUtil.getUCINotation(bestMove) + ") with eval " + bestEval);
+    private void searchWithAspiration(int depth) {
+        int window = ASPIRATION_WINDOW;
+        int alpha = -MAX_EVAL;
+        int beta = MAX_EVAL;
+        if (depth >= ASPIRATION_MIN_DEPTH && Math.abs(bestEval) < CHECKMATE_EVAL - MAX_PLY) {
+            alpha = bestEval - window;
+            beta = bestEval + window;
+        }
 
-        if (bestMove == null) {
-            if (!generator.isChecked) bestMove = new Move((byte)-3, (byte)0, (byte)0, 0);
-            else bestMove = new Move((byte)(manager.whiteToMove ? -2 : -1), (byte)0, (byte)0, 0);
+        while (true) {
+            int eval = findBestMove(depth, 0, alpha, beta);
+            if (searchCancelled) {
+                return;
+            }
+            if (eval <= alpha && alpha > -MAX_EVAL) {
+                alpha = Math.max(alpha - window, -MAX_EVAL);
+            } else if (beta <= eval && beta < MAX_EVAL) {
+                beta = Math.min(beta + window, MAX_EVAL);
+            } else {
+                bestEvalThisIteration = eval;
+                return;
+            }
+            window *= 2;
+        }
+    }
+
+    private static IterationEvent beginIterationEvent() {
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        IterationEvent event = new IterationEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commitIterationEvent(IterationEvent event, int depth) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.depth = depth;
+            event.nodes = getNodes();
+            event.score = bestEval;
+            event.elapsed = timeManager.getElapsed();
+            event.bestMove = bestMove != Move.NONE ? BoardUtil.getUCINotation(new Move(bestMove)) : "none";
+            event.commit();
+        }
+    }
+
+    // the best move followed by the table moves, as long as they are still legal
+    public List<Move> getPrincipalVariation() {
+        List<Move> principalVariation = new ArrayList<>();
+        int[] playedMoves = new int[Math.max(completedDepth, 1)];
+        int move = bestMove;
+        while (move != Move.NONE && principalVariation.size() < playedMoves.length) {
+            int[] legalMoves = moveBuffers[principalVariation.size()];
+            int moveCnt = generator.getLegalMoves(legalMoves, false);
+            if (!containsMove(legalMoves, moveCnt, move)) break;
+
+            playedMoves[principalVariation.size()] = move;
+            principalVariation.add(new Move(move));
+            makeMove(move);
+
+            long ttEntry = table.probe(zobrist.hash);
+            move = ttEntry != 0 ? Entry.getMove(ttEntry) : Move.NONE;
+        }
+
+        for (int i = principalVariation.size() - 1; i >= 0; i--) {
+            unMakeMove(playedMoves[i]);
         }
-        return bestMove;
+        return principalVariation;
     }
 
     public ArrayList<Move> getLegalMoves() {
-        return generator.getLegalMoves(null, false);
+        return generator.getLegalMoves(false);
+    }
+
+    // the first ply's move buffer, free for callers like the book while no search runs
+    int[] getRootMoveBuffer() {
+        return moveBuffers[0];
     }
 
     public int findBestMove(int depth, int depthFromRoot, int alpha, int beta) {
         if (depth == 0) {
-            return findQuitePosition(alpha, beta);
+            return findQuitePosition(depthFromRoot, alpha, beta);
         }
+        nodes++;
 
-        // This will add the best move from previous depth's search
-        ArrayList<Move> legaMoves = generator.getLegalMoves(depthFromRoot == 0 ? bestMove : null, false);
-        // checkmate or stalemate
-        if (legaMoves.isEmpty()) {
-            updateSearchCancelled();
-            return generator.isChecked ? -(CHECKMATE_EVAL - depthFromRoot) : 0;
+        // draw by repetition, the side that could avoid it will if it's better
+        if (depthFromRoot > 0 && isRepetition()) {
+            return 0;
         }
 
-        // 50 move rule or search time over
-        if (manager.halfMoveClock == 50 || searchCancelled || updateSearchCancelled()) {
+        if (searchCancelled || updateSearchCancelled()) {
             return 0;
         }
 
-        long currentPos = zobrist.hash;
-        if (repeatedPositions.containsKey(currentPos)) {
-            int cnt = repeatedPositions.get(currentPos);
-            if (cnt == 3) {
-                return 0; // draw by repetition
+        // the result once few enough pieces are left. the tables count the 50 move rule from the last capture or pawn
+        // move, so they're only asked right after one. wins and losses are bounds, the search may still find a mate
+        if (depthFromRoot > 0 && depthFromRoot < MAX_PLY - TablebaseProber.MAX_PLIES && manager.halfMoveClock == 0 && tablebaseProber.canProbe()) {
+            int wdl = tablebaseProber.probeWdl();
+            if (wdl != Tablebase.NOT_FOUND) {
+                stats.tablebaseHits++;
+                int tablebaseEval = wdl == Tablebase.WDL_WIN ? TABLEBASE_WIN_EVAL - depthFromRoot
+                        : wdl == Tablebase.WDL_LOSS ? -TABLEBASE_WIN_EVAL + depthFromRoot
+                        : 2 * wdl;
+                byte type = wdl == Tablebase.WDL_WIN ? Entry.TYPE_LOWER_BOUND : wdl == Tablebase.WDL_LOSS ? Entry.TYPE_UPPER_BOUND : Entry.TYPE_EXACT;
+                if (type == Entry.TYPE_EXACT || (type == Entry.TYPE_LOWER_BOUND ? beta <= tablebaseEval : tablebaseEval <= alpha)) {
+                    table.putEntry(zobrist.hash, type, Math.min(depth + 6, MAX_DEPTH), tablebaseEval, Move.NONE, depthFromRoot);
+                    return tablebaseEval;
+                }
             }
-            else repeatedPositions.put(currentPos, cnt + 1);
-        } else {
-            repeatedPositions.put(currentPos, 1);
         }
 
-        if (table.hasEntry(zobrist.hash, depth)) {
-            int ttEval = table.getEval(alpha, beta);
+        MovePicker picker = movePickers[depthFromRoot];
+        picker.prepare();
+        // 50 move rule, unless the last move was mate
+        if (manager.halfMoveClock == 50 && (!picker.isChecked() || picker.hasLegalMove())) {
+            return 0;
+        }
+
+        // the table is shared between threads, at the root only trust an entry whose move is legal here
+        long ttEntry = table.probe(zobrist.hash);
+        stats.ttProbes++;
+        if (ttEntry != 0) stats.ttHits++;
+        if (ttEntry != 0 && Entry.getDepth(ttEntry) >= depth && (depthFromRoot != 0 || picker.isLegal(Entry.getMove(ttEntry)))) {
+            int ttEval = TranspositionTable.getEval(ttEntry, alpha, beta, depthFromRoot);
             if (ttEval != TranspositionTable.lookUpFailedValue) {
+                stats.ttCutoffs++;
                 if (depthFromRoot == 0) {
                     bestEvalThisIteration = ttEval;
-                    bestMoveThisIteration = table.getMove();
+                    bestMoveThisIteration = Entry.getMove(ttEntry);
                 }
-                repeatedPositions.put(currentPos, repeatedPositions.get(currentPos) - 1);
                 return ttEval;
             }
         }
 
-        Collections.sort(legaMoves);
-        Move bestMoveThisDepth = null;
+        // if passing still fails high the position is good enough to not bother searching it in full
+        if (depthFromRoot > 0 && depth >= NULL_MOVE_MIN_DEPTH && canTryNullMove(picker, depthFromRoot, beta)) {
+            int reduction = NULL_MOVE_REDUCTION + depth / 6;
+            searchMoves[depthFromRoot] = Move.NONE;
+            makeNullMove();
+            int eval = -findBestMove(Math.max(0, depth - 1 - reduction), depthFromRoot + 1, -beta, -beta + 1);
+            unMakeNullMove();
+
+            if (searchCancelled) {
+                return 0;
+            }
+            if (beta <= eval && verifyNullMove(depth - reduction, depthFromRoot, beta)) {
+                return beta;
+            }
+        }
+
+        // the root searches the best move of the previous depth first, the other nodes the table move
+        int ttMove = ttEntry != 0 ? Entry.getMove(ttEntry) : Move.NONE;
+        if (depthFromRoot == 0) {
+            // after an aspiration fail high the move that failed high goes first
+            int rootMove = bestMoveThisIteration != Move.NONE ? bestMoveThisIteration : bestMove;
+            ttMove = rootMove != Move.NONE ? rootMove : ttMove;
+        }
+        int[] killers = killerMoves[depthFromRoot];
+        int previousMove = depthFromRoot > 0 ? searchMoves[depthFromRoot - 1] : Move.NONE;
+        int counterMove = previousMove != Move.NONE ? counterMoves[Move.getStartSquare(previousMove)][Move.getTargetSquare(previousMove)] : Move.NONE;
+        int[][] history = historyScores[manager.whiteToMove ? 0 : 1];
+        picker.init(ttMove, killers[0], killers[1], counterMove, history);
+
+        int bestMoveThisDepth = Move.NONE;
         byte entryType = Entry.TYPE_UPPER_BOUND;
-        for (Move move : legaMoves) {
+        int searchedCnt = 0;
+        int quietCnt = 0;
+        int[] quiets = searchedQuiets[depthFromRoot];
+        int move;
+        while ((move = picker.next()) != Move.NONE) {
+            boolean capture = picker.isCapture(move);
+            searchMoves[depthFromRoot] = move;
             makeMove(move);
-            int eval = -findBestMove(depth - 1, depthFromRoot + 1, -beta, -alpha);
+            int eval;
+            int reduction = 0;
+            if (depth >= LMR_MIN_DEPTH && searchedCnt >= LMR_MIN_MOVES && !capture && !picker.isChecked()
+                    && !Move.isPromotionMove(Move.getMoveType(move)) && !generator.isInCheck()) {
+                reduction = Math.min(LMR_REDUCTIONS[Math.min(depth, MAX_DEPTH)][Math.min(searchedCnt, MoveGenerator.MAX_MOVES - 1)], depth - 2);
+            }
+            if (searchedCnt == 0) {
+                eval = -findBestMove(depth - 1, depthFromRoot + 1, -beta, -alpha);
+            } else {
+                // the first move is expected to be best, the others only have to be proven worse with a null window.
+                // a reduced search first, then the full depth, and the full window only if the move is better after all
+                eval = -findBestMove(depth - 1 - reduction, depthFromRoot + 1, -alpha - 1, -alpha);
+                if (reduction > 0 && alpha < eval && !searchCancelled) {
+                    eval = -findBestMove(depth - 1, depthFromRoot + 1, -alpha - 1, -alpha);
+                }
+                if (alpha < eval && eval < beta && !searchCancelled) {
+                    eval = -findBestMove(depth - 1, depthFromRoot + 1, -beta, -alpha);
+                }
+            }
             unMakeMove(move);
 
             if (searchCancelled) {
-                repeatedPositions.put(currentPos, repeatedPositions.get(currentPos) - 1);
                 return 0;
             }
 
+            searchedCnt++;
             if (beta <= eval) {
-                table.putEntry(zobrist.hash, Entry.TYPE_LOWER_BOUND, depth, beta, move);
-                repeatedPositions.put(currentPos, repeatedPositions.get(currentPos) - 1);
+                stats.failHighs++;
+                if (searchedCnt == 1) stats.firstMoveFailHighs++;
+                if (!capture) {
+                    storeKiller(killers, move);
+                    updateHistory(history, depth, move, quiets, quietCnt);
+                    if (previousMove != Move.NONE) {
+                        counterMoves[Move.getStartSquare(previousMove)][Move.getTargetSquare(previousMove)] = move & Move.SQUARES_MASK;
+                    }
+                }
+                if (depthFromRoot == 0) {
+                    bestEvalThisIteration = beta;
+                    bestMoveThisIteration = move;
+                }
+                table.putEntry(zobrist.hash, Entry.TYPE_LOWER_BOUND, depth, beta, move, depthFromRoot);
                 return beta;
-            } else if (alpha < eval) {
+            }
+            if (!capture && quietCnt < quiets.length) {
+                quiets[quietCnt++] = move;
+            }
+            if (alpha < eval) {
                 alpha = eval;
                 bestMoveThisDepth = move;
                 entryType = Entry.TYPE_EXACT;
@@ -139,39 +641,159 @@ public class Engine {
             }
         }
 
-        repeatedPositions.put(currentPos, repeatedPositions.get(currentPos) - 1);
-        table.putEntry(zobrist.hash, entryType, depth, alpha, bestMoveThisDepth);
+        // checkmate or stalemate
+        if (searchedCnt == 0) {
+            return picker.isChecked() ? -(CHECKMATE_EVAL - depthFromRoot) : 0;
+        }
+
+        table.putEntry(zobrist.hash, entryType, depth, alpha, bestMoveThisDepth, depthFromRoot);
         return alpha;
     }
 
-    public int findQuitePosition(int alpha, int beta) {
-        int eval = evaluator.evaluate();
-        if (beta < eval) {
-            return beta;
-        } else if (alpha < eval) {
-            alpha = eval;
+    // not when in check, not right after another null move, and not with pawns only, where passing could be the best move
+    private boolean canTryNullMove(MovePicker picker, int depthFromRoot, int beta) {
+        return depthFromRoot >= nullMoveMinPly && !picker.isChecked() && searchMoves[depthFromRoot - 1] != Move.NONE
+                && Math.abs(beta) < CHECKMATE_EVAL - MAX_PLY && manager.getPlayer().hasNonPawnMaterial() && beta <= evaluator.evaluate();
+    }
+
+    // deep null move cut offs are confirmed by a reduced search where the next plies of this side can't pass
+    private boolean verifyNullMove(int depth, int depthFromRoot, int beta) {
+        if (depth < NULL_MOVE_VERIFICATION_DEPTH) {
+            return true;
         }
 
-        ArrayList<Move> legaMoves = generator.getLegalMoves(null, true);
-        Collections.sort(legaMoves);
+        int previousMinPly = nullMoveMinPly;
+        nullMoveMinPly = depthFromRoot + depth * 3 / 4;
+        int eval = findBestMove(depth, depthFromRoot, beta - 1, beta);
+        nullMoveMinPly = previousMinPly;
+        return !searchCancelled && beta <= eval;
+    }
+
+    // the move that cut off gets a bonus and the quiet moves tried before it a penalty, scores saturate at MAX_HISTORY
+    private static void updateHistory(int[][] history, int depth, int move, int[] quiets, int quietCnt) {
+        int bonus = Math.min(depth * depth, MAX_HISTORY);
+        addHistory(history, move, bonus);
+        for (int i = 0; i < quietCnt; i++) {
+            addHistory(history, quiets[i], -bonus);
+        }
+    }
+
+    private static void addHistory(int[][] history, int move, int bonus) {
+        int[] scores = history[Move.getStartSquare(move)];
+        byte targetSquare = Move.getTargetSquare(move);
+        scores[targetSquare] += bonus - scores[targetSquare] * Math.abs(bonus) / MAX_HISTORY;
+    }
+
+    // older searches were about other positions, so their scores count less
+    private void ageHistory() {
+        for (int[][] sideScores : historyScores) {
+            for (int[] scores : sideScores) {
+                for (int i = 0; i < scores.length; i++) {
+                    scores[i] >>= HISTORY_AGING_SHIFT;
+                }
+            }
+        }
+    }
+
+    private static void storeKiller(int[] killers, int move) {
+        if (!Move.isSameMove(killers[0], move)) {
+            killers[1] = killers[0];
+            killers[0] = move & Move.SQUARES_MASK;
+        }
+    }
+
+    public int findQuitePosition(int depthFromRoot, int alpha, int beta) {
+        return findQuitePosition(depthFromRoot, 0, alpha, beta);
+    }
+
+    // only captures are searched until the position is quiet, and every evasion when in check. the first ply also
+    // tries quiet moves that give check
+    private int findQuitePosition(int depthFromRoot, int quiescenceDepth, int alpha, int beta) {
+        nodes++;
+        stats.quiescenceNodes++;
+        if (depthFromRoot >= MAX_PLY - 1) {
+            return evaluator.evaluate();
+        }
+
+        // most nodes end at the stand pat, the moves are only set up after it. entries of the main search are deep enough
+        // for any quiescence node, storing the quiescence results as well only pushed those out
+        boolean inCheck = generator.isInCheck();
+        long ttEntry = table.probe(zobrist.hash);
+        stats.ttProbes++;
+        if (ttEntry != 0) {
+            stats.ttHits++;
+            int ttEval = TranspositionTable.getEval(ttEntry, alpha, beta, depthFromRoot);
+            if (ttEval != TranspositionTable.lookUpFailedValue) {
+                stats.ttCutoffs++;
+                return ttEval;
+            }
+        }
+
+        // the side to move can usually do at least as well as standing pat, except when in check
+        int standPat = 0;
+        MovePicker picker = movePickers[depthFromRoot];
+        if (inCheck) {
+            picker.prepare();
+            picker.init(ttEntry != 0 ? Entry.getMove(ttEntry) : Move.NONE, Move.NONE, Move.NONE, Move.NONE, historyScores[manager.whiteToMove ? 0 : 1]);
+        } else {
+            standPat = evaluator.evaluate();
+            if (beta <= standPat) {
+                return beta;
+            } else if (alpha < standPat) {
+                alpha = standPat;
+            }
+            // captures that lose material by static exchange are left out, they hardly ever change the stand pat result
+            picker.prepare();
+            picker.initCaptures(QUIESCENCE_CHECKS && quiescenceDepth == 0);
+        }
+
+        int searchedCnt = 0;
+        int move;
+        while ((move = picker.next()) != Move.NONE) {
+            boolean capture = picker.isCapture(move);
+            // a capture that can't bring the score back up to alpha, even with a margin for the position
+            if (!inCheck && capture && !Move.isPromotionMove(Move.getMoveType(move)) && standPat + getCapturedValue(move) + DELTA_MARGIN <= alpha) {
+                continue;
+            }
 
-        for (Move move : legaMoves) {
             makeMove(move);
-            eval = -findQuitePosition(-beta, -alpha);
+            if (!inCheck && !capture && !generator.isInCheck()) {
+                unMakeMove(move);
+                continue;
+            }
+            int eval = -findQuitePosition(depthFromRoot + 1, quiescenceDepth + 1, -beta, -alpha);
             unMakeMove(move);
 
-            if (beta <= alpha) {
+            searchedCnt++;
+            if (beta <= eval) {
                 return beta;
             }
             if (alpha < eval) {
                 alpha = eval;
             }
         }
+
+        if (inCheck && searchedCnt == 0) {
+            return -(CHECKMATE_EVAL - depthFromRoot);
+        }
         return alpha;
     }
 
+    private int getCapturedValue(int move) {
+        return Move.getMoveType(move) == Move.MOVE_EP ? PieceUtil.PAWN_VALUE : PieceUtil.getPieceValue(manager.board[Move.getTargetSquare(move)]);
+    }
+
     public void makeMove(Move move) {
-        MoveInfo moveInfo = new MoveInfo(manager.epSquare, manager.castleRights, manager.halfMoveClock);
+        makeMove(move.toInt());
+    }
+
+    public void makeMove(int move) {
+        byte startSquare = Move.getStartSquare(move);
+        byte targetSquare = Move.getTargetSquare(move);
+        byte moveType = Move.getMoveType(move);
+
+        MoveInfo moveInfo = previousMoves[previousMoveCnt++];
+        moveInfo.set(manager.epSquare, manager.castleRights, manager.halfMoveClock);
         if (manager.epSquare != -1) {
             zobrist.updateEPHash(manager.epSquare);
             manager.epSquare = -1;
@@ -180,37 +802,37 @@ public class Engine {
             zobrist.updateCastleHash(manager.castleRights);
         }
 
-        if (Move.isPromotionMove(move.moveType)) {
-            byte targetPiece = manager.board[move.targetSquare];
+        if (Move.isPromotionMove(moveType)) {
+            byte targetPiece = manager.board[targetSquare];
             if (targetPiece != PieceUtil.TYPE_NONE) {
                 moveInfo.piece = targetPiece;
-                manager.getOpponent().getPieces(targetPiece).removePiece(move.targetSquare);
-                zobrist.updateMoveHash(targetPiece, move.targetSquare, -1);
+                manager.getOpponent().getPieces(targetPiece).removePiece(targetSquare);
+                zobrist.updateMoveHash(targetPiece, targetSquare, -1);
             }
 
             if (manager.castleRights != 0) {
-                if (move.targetSquare == BoardUtil.WHITE_KS_ROOK) {
+                if (targetSquare == BoardUtil.WHITE_KS_ROOK) {
                     manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.WHITE_KSC_MASK);
-                } else if (move.targetSquare == BoardUtil.WHITE_QS_ROOK) {
+                } else if (targetSquare == BoardUtil.WHITE_QS_ROOK) {
                     manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.WHITE_QSC_MASK);
-                } else if (move.targetSquare == BoardUtil.BLACK_KS_ROOK) {
+                } else if (targetSquare == BoardUtil.BLACK_KS_ROOK) {
                     manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.BLACK_KSC_MASK);
-                } else if (move.targetSquare == BoardUtil.BLACK_QS_ROOK) {
+                } else if (targetSquare == BoardUtil.BLACK_QS_ROOK) {
                     manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.BLACK_QSC_MASK);
                 }
             }
 
-            byte newPiece = (byte)(PieceUtil.getPromotionPiece(move.moveType) | manager.getPlayer().color);
-            zobrist.updateMoveHash(newPiece, move.targetSquare, -1);
-            manager.board[move.targetSquare] = newPiece;
+            byte newPiece = (byte)(PieceUtil.getPromotionPiece(moveType) | manager.getPlayer().color);
+            zobrist.updateMoveHash(newPiece, targetSquare, -1);
+            manager.board[targetSquare] = newPiece;
 
-            zobrist.updateMoveHash(manager.board[move.startSquare], move.startSquare, -1);
-            manager.board[move.startSquare] = PieceUtil.TYPE_NONE;
+            zobrist.updateMoveHash(manager.board[startSquare], startSquare, -1);
+            manager.board[startSquare] = PieceUtil.TYPE_NONE;
 
-            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).removePiece(move.startSquare);
-            manager.getPlayer().getPieces(newPiece).addPiece(move.targetSquare);
+            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).removePiece(startSquare);
+            manager.getPlayer().getPieces(newPiece).addPiece(targetSquare);
             manager.halfMoveClock = 0;
-        } else if (Move.MOVE_CKS == move.moveType) {
+        } else if (Move.MOVE_CKS == moveType) {
             byte kingSquare = manager.getPlayer().kingSquare;
             manager.board[kingSquare + 1] = manager.board[kingSquare + 3];
             zobrist.updateMoveHash(manager.board[kingSquare + 1], kingSquare + 3, kingSquare + 1);
@@ -221,10 +843,10 @@ public class Engine {
             manager.board[kingSquare] = manager.board[kingSquare + 3] = PieceUtil.TYPE_NONE;
             manager.removePlayerCastleRights();
 
-            manager.getPlayer().kingSquare = move.targetSquare;
-            manager.getPlayer().getPieces(PieceUtil.TYPE_ROOK).updatePosition((byte)(move.targetSquare + 1), (byte)(move.targetSquare - 1));
+            manager.getPlayer().kingSquare = targetSquare;
+            manager.getPlayer().getPieces(PieceUtil.TYPE_ROOK).updatePosition((byte)(targetSquare + 1), (byte)(targetSquare - 1));
             manager.halfMoveClock++;
-        } else if (Move.MOVE_CQS == move.moveType) {
+        } else if (Move.MOVE_CQS == moveType) {
             byte kingSquare = manager.getPlayer().kingSquare;
             manager.board[kingSquare - 1] = manager.board[kingSquare - 4];
             zobrist.updateMoveHash(manager.board[kingSquare - 1], kingSquare - 4, kingSquare - 1);
@@ -235,47 +857,47 @@ public class Engine {
             manager.board[kingSquare] = manager.board[kingSquare - 4] = PieceUtil.TYPE_NONE;
             manager.removePlayerCastleRights();
 
-            manager.getPlayer().kingSquare = move.targetSquare;
-            manager.getPlayer().getPieces(PieceUtil.TYPE_ROOK).updatePosition((byte)(move.targetSquare - 2), (byte)(move.targetSquare + 1));
+            manager.getPlayer().kingSquare = targetSquare;
+            manager.getPlayer().getPieces(PieceUtil.TYPE_ROOK).updatePosition((byte)(targetSquare - 2), (byte)(targetSquare + 1));
             manager.halfMoveClock++;
-        } else if (Move.MOVE_2_SQUARES == move.moveType) {
-            manager.board[move.targetSquare] = manager.board[move.startSquare];
-            zobrist.updateMoveHash(manager.board[move.startSquare], move.startSquare, move.targetSquare);
+        } else if (Move.MOVE_2_SQUARES == moveType) {
+            manager.board[targetSquare] = manager.board[startSquare];
+            zobrist.updateMoveHash(manager.board[startSquare], startSquare, targetSquare);
 
-            manager.board[move.startSquare] = PieceUtil.TYPE_NONE;
-            manager.epSquare = (byte)(move.targetSquare + (manager.whiteToMove ? -8 : 8));
-            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(move.startSquare, move.targetSquare);
+            manager.board[startSquare] = PieceUtil.TYPE_NONE;
+            manager.epSquare = (byte)(targetSquare + (manager.whiteToMove ? -8 : 8));
+            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(startSquare, targetSquare);
             manager.halfMoveClock = 0;
-            zobrist.updateEPHash(move.targetSquare);
-        } else if (Move.MOVE_EP == move.moveType) {
-            manager.board[move.targetSquare] = manager.board[move.startSquare];
-            zobrist.updateMoveHash(manager.board[move.startSquare], move.startSquare, move.targetSquare);
-
-            manager.board[move.startSquare] = PieceUtil.TYPE_NONE;
-            moveInfo.piece = manager.board[move.targetSquare + (manager.whiteToMove ? -8 : 8)];
-            zobrist.updateMoveHash(moveInfo.piece, move.targetSquare + (manager.whiteToMove ? -8 : 8), -1);
-            manager.board[move.targetSquare + (manager.whiteToMove ? -8 : 8)] = PieceUtil.TYPE_NONE;
-
-            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(move.startSquare, move.targetSquare);
-            manager.getOpponent().getPieces(PieceUtil.TYPE_PAWN).removePiece((byte)(move.targetSquare + (manager.whiteToMove ? -8 : 8)));
+            zobrist.updateEPHash(targetSquare);
+        } else if (Move.MOVE_EP == moveType) {
+            manager.board[targetSquare] = manager.board[startSquare];
+            zobrist.updateMoveHash(manager.board[startSquare], startSquare, targetSquare);
+
+            manager.board[startSquare] = PieceUtil.TYPE_NONE;
+            moveInfo.piece = manager.board[targetSquare + (manager.whiteToMove ? -8 : 8)];
+            zobrist.updateMoveHash(moveInfo.piece, targetSquare + (manager.whiteToMove ? -8 : 8), -1);
+            manager.board[targetSquare + (manager.whiteToMove ? -8 : 8)] = PieceUtil.TYPE_NONE;
+
+            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(startSquare, targetSquare);
+            manager.getOpponent().getPieces(PieceUtil.TYPE_PAWN).removePiece((byte)(targetSquare + (manager.whiteToMove ? -8 : 8)));
             manager.halfMoveClock = 0;
         } else {
-            byte targetPiece = manager.board[move.targetSquare];
-            byte startingPiece = PieceUtil.getPieceType(manager.board[move.startSquare]);
+            byte targetPiece = manager.board[targetSquare];
+            byte startingPiece = PieceUtil.getPieceType(manager.board[startSquare]);
 
             if (targetPiece != PieceUtil.TYPE_NONE) {
                 moveInfo.piece = targetPiece;
-                zobrist.updateMoveHash(targetPiece, move.targetSquare, -1);
-                manager.getOpponent().getPieces(targetPiece).removePiece(move.targetSquare);
+                zobrist.updateMoveHash(targetPiece, targetSquare, -1);
+                manager.getOpponent().getPieces(targetPiece).removePiece(targetSquare);
 
                 if (manager.castleRights != 0 && PieceUtil.TYPE_ROOK == PieceUtil.getPieceType(targetPiece)) {
-                    if (move.targetSquare == BoardUtil.WHITE_KS_ROOK) {
+                    if (targetSquare == BoardUtil.WHITE_KS_ROOK) {
                         manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.WHITE_KSC_MASK);
-                    } else if (move.targetSquare == BoardUtil.WHITE_QS_ROOK) {
+                    } else if (targetSquare == BoardUtil.WHITE_QS_ROOK) {
                         manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.WHITE_QSC_MASK);
-                    } else if (move.targetSquare == BoardUtil.BLACK_KS_ROOK) {
+                    } else if (targetSquare == BoardUtil.BLACK_KS_ROOK) {
                         manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.BLACK_KSC_MASK);
-                    } else if (move.targetSquare == BoardUtil.BLACK_QS_ROOK) {
+                    } else if (targetSquare == BoardUtil.BLACK_QS_ROOK) {
                         manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.BLACK_QSC_MASK);
                     }
                 }
@@ -285,34 +907,34 @@ public class Engine {
                 else manager.halfMoveClock++;
             }
 
-            if (move.startSquare != manager.getPlayer().kingSquare) {
+            if (startSquare != manager.getPlayer().kingSquare) {
                 if (manager.castleRights != 0) {
                     if (startingPiece == PieceUtil.TYPE_ROOK) {
                         if (manager.whiteToMove) {
-                            if (move.startSquare == BoardUtil.WHITE_KS_ROOK) {
+                            if (startSquare == BoardUtil.WHITE_KS_ROOK) {
                                 manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.WHITE_KSC_MASK);
-                            } else if (move.startSquare == BoardUtil.WHITE_QS_ROOK) {
+                            } else if (startSquare == BoardUtil.WHITE_QS_ROOK) {
                                 manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.WHITE_QSC_MASK);
                             }
                         } else {
-                            if (move.startSquare == BoardUtil.BLACK_KS_ROOK) {
+                            if (startSquare == BoardUtil.BLACK_KS_ROOK) {
                                 manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.BLACK_KSC_MASK);
-                            } else if (move.startSquare == BoardUtil.BLACK_QS_ROOK) {
+                            } else if (startSquare == BoardUtil.BLACK_QS_ROOK) {
                                 manager.castleRights &= (byte)(BoardUtil.CASTLE_MASK ^ BoardUtil.BLACK_QSC_MASK);
                             }
                         }
                     }
                 }
 
-                manager.getPlayer().getPieces(manager.board[move.startSquare]).updatePosition(move.startSquare, move.targetSquare);
+                manager.getPlayer().getPieces(manager.board[startSquare]).updatePosition(startSquare, targetSquare);
             } else {
                 manager.removePlayerCastleRights();
-                manager.getPlayer().kingSquare = move.targetSquare;
+                manager.getPlayer().kingSquare = targetSquare;
             }
 
-            zobrist.updateMoveHash(manager.board[move.startSquare], move.startSquare, move.targetSquare);
-            manager.board[move.targetSquare] = manager.board[move.startSquare];
-            manager.board[move.startSquare] = PieceUtil.TYPE_NONE;
+            zobrist.updateMoveHash(manager.board[startSquare], startSquare, targetSquare);
+            manager.board[targetSquare] = manager.board[startSquare];
+            manager.board[startSquare] = PieceUtil.TYPE_NONE;
         }
 
         zobrist.updatePlayerHash();
@@ -320,10 +942,41 @@ public class Engine {
             zobrist.updateCastleHash(manager.castleRights);
         }
         manager.whiteToMove = !manager.whiteToMove;
-        previousMoves.push(moveInfo);
+        positionKeys[++historyPly] = zobrist.hash;
+    }
+
+    // passes the turn, the halfmove clock restarts so repetitions aren't looked for across the null move
+    public void makeNullMove() {
+        MoveInfo moveInfo = previousMoves[previousMoveCnt++];
+        moveInfo.set(manager.epSquare, manager.castleRights, manager.halfMoveClock);
+        if (manager.epSquare != -1) {
+            zobrist.updateEPHash(manager.epSquare);
+            manager.epSquare = -1;
+        }
+        manager.halfMoveClock = 0;
+
+        zobrist.updatePlayerHash();
+        manager.whiteToMove = !manager.whiteToMove;
+        positionKeys[++historyPly] = zobrist.hash;
+    }
+
+    public void unMakeNullMove() {
+        MoveInfo moveInfo = previousMoves[--previousMoveCnt];
+        historyPly--;
+        zobrist.updatePlayerHash();
+        manager.whiteToMove = !manager.whiteToMove;
+        manager.epSquare = moveInfo.epSquare;
+        manager.halfMoveClock = moveInfo.halfMoveClock;
+        if (manager.epSquare != -1) {
+            zobrist.updateEPHash(manager.epSquare);
+        }
     }
 
-    private void unMakeMove(Move move) {
+    public void unMakeMove(int move) {
+        byte startSquare = Move.getStartSquare(move);
+        byte targetSquare = Move.getTargetSquare(move);
+        byte moveType = Move.getMoveType(move);
+
         zobrist.updatePlayerHash();
         if (manager.epSquare != -1) {
             zobrist.updateEPHash(manager.epSquare);
@@ -332,7 +985,8 @@ public class Engine {
             zobrist.updateCastleHash(manager.castleRights);
         }
 
-        MoveInfo moveInfo = previousMoves.pop();
+        MoveInfo moveInfo = previousMoves[--previousMoveCnt];
+        historyPly--;
         manager.whiteToMove = !manager.whiteToMove;
         manager.epSquare = moveInfo.epSquare;
         manager.castleRights = moveInfo.castleRights;
@@ -345,20 +999,20 @@ public class Engine {
             zobrist.updateCastleHash(manager.castleRights);
         }
 
-        if (Move.isPromotionMove(move.moveType)) {
-            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).addPiece(move.startSquare);
-            manager.getPlayer().getPieces(manager.board[move.targetSquare]).removePiece(move.targetSquare);
-            zobrist.updateMoveHash(manager.board[move.targetSquare], move.targetSquare, -1);
+        if (Move.isPromotionMove(moveType)) {
+            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).addPiece(startSquare);
+            manager.getPlayer().getPieces(manager.board[targetSquare]).removePiece(targetSquare);
+            zobrist.updateMoveHash(manager.board[targetSquare], targetSquare, -1);
 
             if (moveInfo.piece != PieceUtil.TYPE_NONE) {
-                manager.getOpponent().getPieces(moveInfo.piece).addPiece(move.targetSquare);
-                zobrist.updateMoveHash(moveInfo.piece, move.targetSquare, -1);
+                manager.getOpponent().getPieces(moveInfo.piece).addPiece(targetSquare);
+                zobrist.updateMoveHash(moveInfo.piece, targetSquare, -1);
             }
 
-            manager.board[move.startSquare] = (byte)(PieceUtil.TYPE_PAWN | manager.getPlayer().color);
-            zobrist.updateMoveHash(manager.board[move.startSquare], move.startSquare, -1);
-            manager.board[move.targetSquare] = moveInfo.piece;
-        } else if (Move.MOVE_CKS == move.moveType) {
+            manager.board[startSquare] = (byte)(PieceUtil.TYPE_PAWN | manager.getPlayer().color);
+            zobrist.updateMoveHash(manager.board[startSquare], startSquare, -1);
+            manager.board[targetSquare] = moveInfo.piece;
+        } else if (Move.MOVE_CKS == moveType) {
             byte kingSquare = manager.getPlayer().kingSquare;
             manager.getPlayer().getPieces(PieceUtil.TYPE_ROOK).updatePosition((byte)(kingSquare - 1), (byte)(kingSquare + 1));
 
@@ -369,8 +1023,8 @@ public class Engine {
             manager.board[kingSquare - 2] = manager.board[kingSquare];
 
             manager.board[kingSquare] = manager.board[kingSquare - 1] = PieceUtil.TYPE_NONE;
-            manager.getPlayer().kingSquare = move.startSquare;
-        } else if (Move.MOVE_CQS == move.moveType) {
+            manager.getPlayer().kingSquare = startSquare;
+        } else if (Move.MOVE_CQS == moveType) {
             byte kingSquare = manager.getPlayer().kingSquare;
             manager.getPlayer().getPieces(PieceUtil.TYPE_ROOK).updatePosition((byte)(kingSquare + 1), (byte)(kingSquare - 2));
 
@@ -381,38 +1035,38 @@ public class Engine {
             manager.board[kingSquare + 2] = manager.board[kingSquare];
 
             manager.board[kingSquare] = manager.board[kingSquare + 1] = PieceUtil.TYPE_NONE;
-            manager.getPlayer().kingSquare = move.startSquare;
-        } else if (Move.MOVE_2_SQUARES == move.moveType) {
-            zobrist.updateMoveHash(manager.board[move.targetSquare], move.targetSquare, move.startSquare);
-            manager.board[move.startSquare] = manager.board[move.targetSquare];
-
-            manager.board[move.targetSquare] = PieceUtil.TYPE_NONE;
-            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(move.targetSquare, move.startSquare);
-        } else if (Move.MOVE_EP == move.moveType) {
-            zobrist.updateMoveHash(manager.board[move.targetSquare], move.targetSquare, move.startSquare);
-            manager.board[move.startSquare] = manager.board[move.targetSquare];
-            manager.board[move.targetSquare] = PieceUtil.TYPE_NONE;
-
-            zobrist.updateMoveHash(moveInfo.piece, move.targetSquare + (manager.whiteToMove ? -8 : 8), -1);
-            manager.board[move.targetSquare + (manager.whiteToMove ? -8 : 8)] = moveInfo.piece;
-
-            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(move.targetSquare, move.startSquare);
-            manager.getOpponent().getPieces(PieceUtil.TYPE_PAWN).addPiece((byte)(move.targetSquare + (manager.whiteToMove ? -8 : 8)));
+            manager.getPlayer().kingSquare = startSquare;
+        } else if (Move.MOVE_2_SQUARES == moveType) {
+            zobrist.updateMoveHash(manager.board[targetSquare], targetSquare, startSquare);
+            manager.board[startSquare] = manager.board[targetSquare];
+
+            manager.board[targetSquare] = PieceUtil.TYPE_NONE;
+            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(targetSquare, startSquare);
+        } else if (Move.MOVE_EP == moveType) {
+            zobrist.updateMoveHash(manager.board[targetSquare], targetSquare, startSquare);
+            manager.board[startSquare] = manager.board[targetSquare];
+            manager.board[targetSquare] = PieceUtil.TYPE_NONE;
+
+            zobrist.updateMoveHash(moveInfo.piece, targetSquare + (manager.whiteToMove ? -8 : 8), -1);
+            manager.board[targetSquare + (manager.whiteToMove ? -8 : 8)] = moveInfo.piece;
+
+            manager.getPlayer().getPieces(PieceUtil.TYPE_PAWN).updatePosition(targetSquare, startSquare);
+            manager.getOpponent().getPieces(PieceUtil.TYPE_PAWN).addPiece((byte)(targetSquare + (manager.whiteToMove ? -8 : 8)));
         } else {
-            if (move.targetSquare != manager.getPlayer().kingSquare) {
-                manager.getPlayer().getPieces(manager.board[move.targetSquare]).updatePosition(move.targetSquare, move.startSquare);
+            if (targetSquare != manager.getPlayer().kingSquare) {
+                manager.getPlayer().getPieces(manager.board[targetSquare]).updatePosition(targetSquare, startSquare);
             } else {
-                manager.getPlayer().kingSquare = move.startSquare;
+                manager.getPlayer().kingSquare = startSquare;
             }
 
             if (moveInfo.piece != PieceUtil.TYPE_NONE) {
-                zobrist.updateMoveHash(moveInfo.piece, move.targetSquare, -1);
-                manager.getOpponent().getPieces(moveInfo.piece).addPiece(move.targetSquare);
+                zobrist.updateMoveHash(moveInfo.piece, targetSquare, -1);
+                manager.getOpponent().getPieces(moveInfo.piece).addPiece(targetSquare);
             }
 
-            zobrist.updateMoveHash(manager.board[move.targetSquare], move.targetSquare, move.startSquare);
-            manager.board[move.startSquare] = manager.board[move.targetSquare];
-            manager.board[move.targetSquare] = moveInfo.piece;
+            zobrist.updateMoveHash(manager.board[targetSquare], targetSquare, startSquare);
+            manager.board[startSquare] = manager.board[targetSquare];
+            manager.board[targetSquare] = moveInfo.piece;
         }
     }
 
@@ -420,13 +1074,48 @@ public class Engine {
         return getNodeCount(depth);
     }
 
+    // perft with bulk counting at the last ply and an optional table of subtree counts
+    public long perft(int depth, PerftTable perftTable) {
+        if (depth == 0) {
+            return 1;
+        }
+
+        int[] legalMoves = moveBuffers[depth];
+        int moveCnt = generator.getLegalMoves(legalMoves, false);
+        if (depth == 1) {
+            return moveCnt;
+        }
+
+        if (perftTable != null) {
+            long nodes = perftTable.getNodeCount(zobrist.hash, depth);
+            if (nodes != -1) {
+                return nodes;
+            }
+        }
+
+        long nodes = 0;
+        for (int i = 0; i < moveCnt; i++) {
+            int move = legalMoves[i];
+            makeMove(move);
+            nodes += perft(depth - 1, perftTable);
+            unMakeMove(move);
+        }
+
+        if (perftTable != null) {
+            perftTable.putNodeCount(zobrist.hash, depth, nodes);
+        }
+        return nodes;
+    }
+
     private long getNodeCount(int depth) {
         if (depth == 0) {
             return 1;
         }
-        ArrayList<Move> legaMoves = generator.getLegalMoves(null, false);
+        int[] legalMoves = moveBuffers[depth];
+        int moveCnt = generator.getLegalMoves(legalMoves, false);
         long moves = 0;
-        for (Move move : legaMoves) {
+        for (int i = 0; i < moveCnt; i++) {
+            int move = legalMoves[i];
             makeMove(move);
             long currentMoves = getNodeCount(depth - 1);
             moves += currentMoves;
@@ -435,9 +1124,59 @@ public class Engine {
         return moves;
     }
 
+    // only positions since the last capture or pawn move can repeat, and only with the same side to move
+    private boolean isRepetition() {
+        int firstPly = Math.max(0, historyPly - manager.halfMoveClock);
+        for (int ply = historyPly - 4; ply >= firstPly; ply -= 2) {
+            if (positionKeys[ply] == zobrist.hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // called after a move is played in the game, the positions before the last irreversible move can't repeat any more
+    public void trimPositionHistory() {
+        int keep = Math.min(historyPly, Math.max(0, manager.halfMoveClock)) + 1;
+        System.arraycopy(positionKeys, historyPly + 1 - keep, positionKeys, 0, keep);
+        historyPly = keep - 1;
+    }
+
+    // forgets the moves that led to the position, after the manager set up a new one
+    public void resetPosition() {
+        zobrist.reset(manager.board, manager.castleRights, manager.epSquare, manager.whiteToMove);
+        previousMoveCnt = 0;
+        positionKeys[0] = zobrist.hash;
+        historyPly = 0;
+    }
+
+    public void copyPositionHistory(Engine other) {
+        System.arraycopy(other.positionKeys, 0, positionKeys, 0, other.historyPly + 1);
+        historyPly = other.historyPly;
+    }
+
+    private boolean containsMove(int[] moves, int moveCnt, int move) {
+        for (int i = 0; i < moveCnt; i++) {
+            if (Move.isSameMove(moves[i], move)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean updateSearchCancelled() {
-        if (searchEndTime < System.currentTimeMillis()) {
-            searchCancelled =  true;
+        if (stopRequested) {
+            searchCancelled = true;
+            stats.stopReason = SearchStats.StopReason.STOP;
+        } else if (nodes >= nodeLimit) {
+            searchCancelled = true;
+            stats.stopReason = SearchStats.StopReason.NODES;
+        } else if (nodes >= nextTimeCheck) {
+            nextTimeCheck = nodes + TIME_CHECK_NODES;
+            if (searchEndTime < System.currentTimeMillis()) {
+                searchCancelled = true;
+                stats.stopReason = SearchStats.StopReason.HARD_LIMIT;
+            }
         }
         return searchCancelled;
     }
@@ -5,17 +5,43 @@ public class Entry {
     public static byte TYPE_LOWER_BOUND = 1;
     public static byte TYPE_UPPER_BOUND = 2;
 
-    byte type;
-    int depth;
-    int value;
-    Move move;
-    long hash;
-
-    Entry(long h, byte t, int d, int v, Move m) {
-        hash = h;
-        type = t;
-        depth = d;
-        value = v;
-        move = m;
+    // packed entry : move (16 bits), depth (8 bits), type + 1 (2 bits), generation (6 bits), value (32 bits)
+    // the type is stored off by one so a used entry is never 0
+    private static final int DEPTH_SHIFT = 16;
+    private static final int TYPE_SHIFT = 24;
+    private static final int GENERATION_SHIFT = 26;
+    private static final int VALUE_SHIFT = 32;
+    public static final int GENERATION_MASK = 63;
+
+    public static long pack(byte type, int depth, int value, int move, int generation) {
+        return (move & Move.SQUARES_MASK)
+                | ((long)(depth & 0xFF) << DEPTH_SHIFT)
+                | ((long)(type + 1) << TYPE_SHIFT)
+                | ((long)(generation & GENERATION_MASK) << GENERATION_SHIFT)
+                | ((long)value << VALUE_SHIFT);
+    }
+
+    public static long setGeneration(long entry, int generation) {
+        return (entry & ~((long)GENERATION_MASK << GENERATION_SHIFT)) | ((long)(generation & GENERATION_MASK) << GENERATION_SHIFT);
+    }
+
+    public static int getMove(long entry) {
+        return (int)(entry & Move.SQUARES_MASK);
+    }
+
+    public static int getDepth(long entry) {
+        return (int)((entry >>> DEPTH_SHIFT) & 0xFF);
+    }
+
+    public static byte getType(long entry) {
+        return (byte)(((entry >>> TYPE_SHIFT) & 3) - 1);
+    }
+
+    public static int getGeneration(long entry) {
+        return (int)((entry >>> GENERATION_SHIFT) & GENERATION_MASK);
+    }
+
+    public static int getValue(long entry) {
+        return (int)(entry >> VALUE_SHIFT);
     }
 }
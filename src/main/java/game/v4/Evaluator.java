@@ -5,24 +5,38 @@ import util.EvaluationUtil;
 import util.PieceUtil;
 
 public class Evaluator {
+    // debug mode, checks the incrementally updated terms against a full recompute on every evaluation
+    public static boolean verifyIncremental = false;
+
     private final Manager manager;
+    public final PawnTable pawnTable;
+    private int pawnIndex;
 
     public Evaluator(Manager manager) {
         this.manager = manager;
+        pawnTable = new PawnTable(PawnTable.DEFAULT_SIZE);
     }
 
     public int evaluate() {
         Player player = manager.getPlayer();
         Player opponent = manager.getOpponent();
 
-        int playerPiecesValues = getPieceValues(player);
-        int opponentPiecesValues = getPieceValues(opponent);
+        if (verifyIncremental) {
+            verifyIncrementalValues(player);
+            verifyIncrementalValues(opponent);
+        }
+
+        int playerPiecesValues = player.getMaterial();
+        int opponentPiecesValues = opponent.getMaterial();
         float playerEndGameWeight = (float)(EvaluationUtil.ALL_PIECES_VALUE - playerPiecesValues) / EvaluationUtil.ALL_PIECES_VALUE;
         float opponentEndGameWeight = (float)(EvaluationUtil.ALL_PIECES_VALUE - opponentPiecesValues) / EvaluationUtil.ALL_PIECES_VALUE;
 
+        setPawnStructure();
+
         int evaluation = playerPiecesValues - opponentPiecesValues;
-        evaluation += getPieceSquareValues(player, opponent, player.evalIndex, playerEndGameWeight)
-                    - getPieceSquareValues(opponent, player, opponent.evalIndex, opponentEndGameWeight);
+        evaluation += pawnTable.structureScores[player.evalIndex][pawnIndex] - pawnTable.structureScores[opponent.evalIndex][pawnIndex];
+        evaluation += getPieceSquareValues(player, opponent, playerEndGameWeight)
+                    - getPieceSquareValues(opponent, player, opponentEndGameWeight);
 
         if (Math.max(playerEndGameWeight, opponentEndGameWeight) >= 0.6) {
             evaluation += EvaluationUtil.KING_END_TABLE[player.evalIndex][player.kingSquare] - EvaluationUtil.KING_END_TABLE[opponent.evalIndex][opponent.kingSquare];
@@ -44,46 +58,76 @@ public class Evaluator {
         return value;
     }
 
-    private int getPieceSquareValues(Player player, Player opponent, int index, float endGameWeight) {
-        int value = 0;
-//        byte rank = 0, file = 0;
-        boolean isEndGame = endGameWeight > 0.6;
-//        if (isEndGame) {
-//            rank = BoardUtil.getRank(player.kingSquare);
-//            file = BoardUtil.getFile(player.kingSquare);
-//        }
-
-        for (int i = 0; i < player.rooks.currentCnt; i++) {
-            value += EvaluationUtil.ROOK_TABLE[index][player.rooks.positions[i]];
-        }
-        for (int i = 0; i < player.bishops.currentCnt; i++) {
-            value += EvaluationUtil.BISHOP_TABLE[index][player.bishops.positions[i]];
+    private int getPieceSquareValues(Player player, Player opponent, float endGameWeight) {
+        int value = player.queens.squareValue + player.rooks.squareValue + player.bishops.squareValue + player.knights.squareValue;
+        if (endGameWeight > 0.6) {
+            value += player.pawns.endSquareValue * 2 + pawnTable.passedScores[player.evalIndex][pawnIndex];
+        } else {
+            value += player.pawns.squareValue;
         }
-        for (int i = 0; i < player.knights.currentCnt; i++) {
-            value += EvaluationUtil.KNIGHT_TABLE[index][player.knights.positions[i]];
+        return value;
+    }
+
+    private void setPawnStructure() {
+        long pawnHash = manager.engine.zobrist.pawnHash;
+        pawnIndex = pawnTable.getIndex(pawnHash);
+        if (!pawnTable.contains(pawnIndex, pawnHash)) {
+            setPawnStructure(manager.white, manager.black);
+            setPawnStructure(manager.black, manager.white);
+            pawnTable.keys[pawnIndex] = pawnHash;
         }
+    }
+
+    private void setPawnStructure(Player player, Player opponent) {
+        int passedScore = 0, structureScore = 0;
+        long passedPawns = 0;
+
         for (int i = 0; i < player.pawns.currentCnt; i++) {
             byte pos = player.pawns.positions[i];
+            byte file = BoardUtil.getFile(pos);
 
-            if (isEndGame) {
-                value += EvaluationUtil.PAWN_END_TABLE[index][pos] * 2;
+            if ((EvaluationUtil.passedPawnMask[player.evalIndex][pos] & opponent.pawns.bitBoard) == 0) {
                 byte rank = BoardUtil.getRank(pos);
-                byte file = BoardUtil.getFile(pos);
-
-                long fileMask = EvaluationUtil.fileMask[file] | (file > 0 ? EvaluationUtil.fileMask[file - 1] : 0) | (file < 7 ? EvaluationUtil.fileMask[file + 1] : 0);
-                long completeMask = fileMask << (8 * rank);
-                if ((completeMask & opponent.pawns.bitBoard) == 0) {
-                    value += EvaluationUtil.passedPawnGain[rank];
-                }
-            } else {
-                value += EvaluationUtil.PAWN_TABLE[index][pos];
+                passedScore += EvaluationUtil.passedPawnGain[player.color == Player.WHITE ? rank : 7 - rank];
+                passedPawns |= BoardUtil.squareMask[pos];
+            }
+            if ((EvaluationUtil.adjacentFileMask[file] & player.pawns.bitBoard) == 0) {
+                structureScore -= EvaluationUtil.ISOLATED_PAWN_PENALTY;
             }
         }
 
-        for (int i = 0; i < player.queens.currentCnt; i++) {
-            value += EvaluationUtil.QUEEN_TABLE[index][player.queens.positions[i]];
+        for (int file = 0; file < 8; file++) {
+            int pawnsOnFile = Long.bitCount(EvaluationUtil.fileMask[file] & player.pawns.bitBoard);
+            if (pawnsOnFile > 1) {
+                structureScore -= EvaluationUtil.DOUBLED_PAWN_PENALTY * (pawnsOnFile - 1);
+            }
+        }
+
+        pawnTable.passedScores[player.evalIndex][pawnIndex] = passedScore;
+        pawnTable.structureScores[player.evalIndex][pawnIndex] = structureScore;
+        pawnTable.passedPawns[player.evalIndex][pawnIndex] = passedPawns;
+    }
+
+    private void verifyIncrementalValues(Player player) {
+        if (player.getMaterial() != getPieceValues(player)) {
+            throw new IllegalStateException("Incremental material for " + player.getName() + " is " + player.getMaterial() + ", expected " + getPieceValues(player));
+        }
+        verifySquareValues(player, player.queens, EvaluationUtil.QUEEN_TABLE, EvaluationUtil.QUEEN_TABLE);
+        verifySquareValues(player, player.rooks, EvaluationUtil.ROOK_TABLE, EvaluationUtil.ROOK_TABLE);
+        verifySquareValues(player, player.bishops, EvaluationUtil.BISHOP_TABLE, EvaluationUtil.BISHOP_TABLE);
+        verifySquareValues(player, player.knights, EvaluationUtil.KNIGHT_TABLE, EvaluationUtil.KNIGHT_TABLE);
+        verifySquareValues(player, player.pawns, EvaluationUtil.PAWN_TABLE, EvaluationUtil.PAWN_END_TABLE);
+    }
+
+    private void verifySquareValues(Player player, Pieces pieces, byte[][] table, byte[][] endTable) {
+        int value = 0, endValue = 0;
+        for (int i = 0; i < pieces.currentCnt; i++) {
+            value += table[player.evalIndex][pieces.positions[i]];
+            endValue += endTable[player.evalIndex][pieces.positions[i]];
+        }
+        if (value != pieces.squareValue || endValue != pieces.endSquareValue) {
+            throw new IllegalStateException("Incremental square values for " + player.getName() + " are (" + pieces.squareValue + ", " + pieces.endSquareValue + "), expected (" + value + ", " + endValue + ")");
         }
-        return value;
     }
 
     private int getKingActivityValue(Player player, Player opponent, float endGameWeight) {
@@ -0,0 +1,32 @@
+package game.v4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// one completed iteration of the main search thread, the event duration is the iteration time
+@Name("chessv3.SearchIteration")
+@Label("Search Iteration")
+@Category({"ChessV3", "Search"})
+@Description("Iteration of the iterative deepening loop on the main search thread")
+public class IterationEvent extends jdk.jfr.Event {
+    @Label("Depth")
+    public int depth;
+
+    @Label("Nodes")
+    @Description("Nodes searched by all threads since the start of the search")
+    public long nodes;
+
+    @Label("Score")
+    @Description("Centipawns from the side to move")
+    public int score;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.MILLISECONDS)
+    public long elapsed;
+
+    @Label("Best Move")
+    public String bestMove;
+}
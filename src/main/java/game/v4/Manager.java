@@ -17,25 +17,81 @@ public class Manager {
     public byte halfMoveClock;
     public int fullMoveCnt;
     public Engine engine;
+    // played without a search while the position is in it, null without a book
+    public OpeningBook book;
 
     public Manager() {
         this("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
     }
 
     public Manager(String fen) {
+        this(fen, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+    }
+
+    public Manager(String fen, TranspositionTable table) {
+        this(fen, table, null);
+    }
+
+    public Manager(String fen, TranspositionTable table, OpeningBook book) {
+        this.book = book;
         white = new Player("White", Player.WHITE, EvaluationUtil.WHITE_INDEX);
         black = new Player("Black", Player.BLACK, EvaluationUtil.BLACK_INDEX);
         try {
             setBoard(fen);
-            engine = new Engine(this);
+            engine = new Engine(this, table);
         } catch (Exception e) {
             System.out.println("Couldn't initialize manager...");
             System.err.println(e.getMessage());
         }
     }
 
-    private void setBoard(String fen) throws Exception {
+    // copy of the position for a helper search thread, sharing the given table
+    public Manager(Manager other, TranspositionTable table) {
+        white = new Player("White", Player.WHITE, EvaluationUtil.WHITE_INDEX);
+        black = new Player("Black", Player.BLACK, EvaluationUtil.BLACK_INDEX);
         board = new byte[64];
+        engine = new Engine(this, table);
+        copyPosition(other);
+    }
+
+    // takes over the position and its repetition history, keeping this manager's engine and what it learned
+    public void copyPosition(Manager other) {
+        setPosition(other.board, other.whiteToMove, other.castleRights, other.epSquare, other.halfMoveClock);
+        fullMoveCnt = other.fullMoveCnt;
+        engine.copyPositionHistory(other.engine);
+    }
+
+    // the position on the given board, without the moves that led to it
+    void setPosition(byte[] board, boolean whiteToMove, byte castleRights, byte epSquare, byte halfMoveClock) {
+        white.clear();
+        black.clear();
+        System.arraycopy(board, 0, this.board, 0, 64);
+        for (byte square = 0; square < 64; square++) {
+            if (board[square] != PieceUtil.TYPE_NONE) {
+                Player player = PieceUtil.isWhitePiece(board[square]) ? white : black;
+                if (PieceUtil.getPieceType(board[square]) == PieceUtil.TYPE_KING) player.kingSquare = square;
+                else player.getPieces(board[square]).addPiece(square);
+            }
+        }
+
+        this.whiteToMove = whiteToMove;
+        this.castleRights = castleRights;
+        this.epSquare = epSquare;
+        this.halfMoveClock = halfMoveClock;
+        engine.resetPosition();
+    }
+
+    // a new game from the given position, keeping the engine
+    public void setPosition(String fen) throws Exception {
+        white.clear();
+        black.clear();
+        setBoard(fen);
+        engine.resetPosition();
+    }
+
+    private void setBoard(String fen) throws Exception {
+        if (board == null) board = new byte[64];
+        else Arrays.fill(board, PieceUtil.TYPE_NONE);
         String[] fenParts = fen.split(" ");
 
         if (fenParts.length > 0 && fenParts[0].contains("k") && fenParts[0].contains("K")) {
@@ -77,7 +133,7 @@ public class Manager {
 
         epSquare = fenParts.length > 3 ? BoardUtil.getSquare(fenParts[3]) : -1;
         halfMoveClock = fenParts.length > 4 ? Byte.parseByte(fenParts[4]) : 0;
-        fullMoveCnt = fenParts.length > 5 ? Byte.parseByte(fenParts[5]) : 0;
+        fullMoveCnt = fenParts.length > 5 ? Integer.parseInt(fenParts[5]) : 0;
     }
 
     public Player getPlayer() {
@@ -99,7 +155,14 @@ public class Manager {
     }
 
     public Move playBotMove() {
-        Move move = engine.getBestMove();
+        return playBotMove(SearchLimits.of(Engine.MAX_DEPTH, Engine.DEFAULT_MOVE_TIME));
+    }
+
+    public Move playBotMove(SearchLimits limits) {
+        Move move = book != null ? book.probe(this) : null;
+        if (move == null) {
+            move = engine.getBestMove(limits);
+        }
         if (move.startSquare >= 0) {
             playMove(move);
         }
@@ -108,12 +171,37 @@ public class Manager {
 
     public void playMove(Move move) {
         engine.makeMove(move);
-        engine.previousMoves.clear();
-        long posKey = engine.zobrist.hash;
-        engine.repeatedPositions.put(posKey, engine.repeatedPositions.getOrDefault(posKey, 0) + 1);
+        engine.previousMoveCnt = 0;
+        engine.trimPositionHistory();
+    }
+
+    public void setThreads(int threads) {
+        engine.setThreads(threads);
+    }
+
+    public void setHashSize(int sizeInMb) {
+        engine.table.resize(sizeInMb);
     }
 
     public long test(int depth) {
         return engine.test(depth);
     }
+
+    public long perft(int depth, int threads) {
+        Perft perft = new Perft(threads, Perft.DEFAULT_HASH_MB);
+        try {
+            return perft.run(this, depth);
+        } finally {
+            perft.shutdown();
+        }
+    }
+
+    public void divide(int depth, int threads) {
+        Perft perft = new Perft(threads, Perft.DEFAULT_HASH_MB);
+        try {
+            perft.printDivide(this, depth);
+        } finally {
+            perft.shutdown();
+        }
+    }
 }
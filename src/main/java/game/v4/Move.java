@@ -11,6 +11,13 @@ public class Move implements Comparable<Move> {
     public final static byte MOVE_P_KNIGHT = 7;
     public final static byte MOVE_2_SQUARES = 8;
 
+    // packed move : start square (6 bits), target square (6 bits), move type (4 bits), move gain (upper 16 bits)
+    // the gain sits in the sign bits so comparing two packed moves orders them by gain
+    public final static int NONE = 0;
+    public final static int MAX_GAIN = Short.MAX_VALUE;
+    public final static int MIN_GAIN = Short.MIN_VALUE;
+    public final static int SQUARES_MASK = 0xFFFF;
+
     public byte startSquare;
     public byte targetSquare;
     public byte moveType;
@@ -23,6 +30,14 @@ public class Move implements Comparable<Move> {
         this.moveGain = moveGain;
     }
 
+    public Move(int move) {
+        this(getStartSquare(move), getTargetSquare(move), getMoveType(move), getMoveGain(move));
+    }
+
+    public int toInt() {
+        return encode(startSquare, targetSquare, moveType, moveGain);
+    }
+
     @Override
     public int compareTo(Move m) {
         return Integer.compare(m.moveGain, this.moveGain);
@@ -31,4 +46,32 @@ public class Move implements Comparable<Move> {
     public static boolean isPromotionMove(byte move) {
         return move == MOVE_P_BISHOP || move == MOVE_P_KNIGHT || move == MOVE_P_ROOK || move == MOVE_P_QUEEN;
     }
+
+    public static int encode(byte startSquare, byte targetSquare, byte moveType, int moveGain) {
+        return (startSquare | (targetSquare << 6) | (moveType << 12)) + (Math.clamp(moveGain, MIN_GAIN, MAX_GAIN) << 16);
+    }
+
+    public static byte getStartSquare(int move) {
+        return (byte)(move & 63);
+    }
+
+    public static byte getTargetSquare(int move) {
+        return (byte)((move >>> 6) & 63);
+    }
+
+    public static byte getMoveType(int move) {
+        return (byte)((move >>> 12) & 15);
+    }
+
+    public static int getMoveGain(int move) {
+        return move >> 16;
+    }
+
+    public static int setMoveGain(int move, int moveGain) {
+        return (move & SQUARES_MASK) + (Math.clamp(moveGain, MIN_GAIN, MAX_GAIN) << 16);
+    }
+
+    public static boolean isSameMove(int move1, int move2) {
+        return (move1 & SQUARES_MASK) == (move2 & SQUARES_MASK);
+    }
 }
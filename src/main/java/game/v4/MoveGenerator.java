@@ -1,15 +1,24 @@
 package game.v4;
 
+import util.AttackUtil;
 import util.BoardUtil;
 import util.PieceUtil;
 
 import java.util.ArrayList;
 
 public class MoveGenerator {
+    public static final int MAX_MOVES = 256;
+    public static final int MODE_ALL = 0;
+    public static final int MODE_CAPTURES = 1;
+    public static final int MODE_QUIETS = 2;
+    // longs needed to save the attack masks of a position, see saveState
+    public static final int STATE_SIZE = 8;
+
     private final Manager manager;
     private Player player;
     private Player opponent;
-    private ArrayList<Move> legalMoves;
+    private int[] legalMoves;
+    private int moveCnt;
 
     public boolean isChecked;
     private boolean isDoubleChecked;
@@ -17,26 +26,136 @@ public class MoveGenerator {
     private long pinMask;
     private long checkMask;
     private long pawnAttackMask;
+    private long occupancy;
+    private long playerOccupancy;
+    private long opponentOccupancy;
+
+    private boolean generateCaptures;
+    private boolean generateQuiets;
+    // only the pieces on these squares get their moves generated
+    private long pieceFilter;
+    private final int[] pieceMoves;
 
     public MoveGenerator(Manager manager) {
         this.manager = manager;
+        pieceFilter = -1L;
+        pieceMoves = new int[32];
     }
 
-    public ArrayList<Move> getLegalMoves(Move previousBestMove, boolean capturesOnly) {
+    public int getLegalMoves(int[] moves, boolean capturesOnly) {
+        prepare();
+        return generateMoves(moves, capturesOnly ? MODE_CAPTURES : MODE_ALL);
+    }
+
+    // sets up the attack masks of the current position, generateMoves and isLegalMove rely on them
+    public void prepare() {
         player = manager.getPlayer();
         opponent = manager.getOpponent();
-
         setAttackMask();
-        generateLegalMoves(previousBestMove, capturesOnly);
-        return legalMoves;
+    }
+
+    public int generateMoves(int[] moves, int mode) {
+        return generateMoves(moves, 0, mode);
+    }
+
+    // appends the moves after the first offset ones, returns the new count
+    public int generateMoves(int[] moves, int offset, int mode) {
+        legalMoves = moves;
+        moveCnt = offset;
+        generateCaptures = mode != MODE_QUIETS;
+        generateQuiets = mode != MODE_CAPTURES;
+        generateLegalMoves();
+        return moveCnt;
+    }
+
+    // checks a move from elsewhere, like the transposition table, by generating the moves of its piece only
+    public boolean isLegalMove(int move) {
+        byte startSquare = Move.getStartSquare(move);
+        byte piece = manager.board[startSquare];
+        if (piece == PieceUtil.TYPE_NONE || PieceUtil.getPieceColor(piece) != player.color) {
+            return false;
+        }
+
+        pieceFilter = BoardUtil.squareMask[startSquare];
+        int cnt = generateMoves(pieceMoves, MODE_ALL);
+        pieceFilter = -1L;
+        for (int i = 0; i < cnt; i++) {
+            if (Move.isSameMove(pieceMoves[i], move)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the search generates moves of a node in stages, the positions searched in between overwrite the masks
+    public void saveState(long[] state) {
+        state[0] = attackMask;
+        state[1] = pinMask;
+        state[2] = checkMask;
+        state[3] = pawnAttackMask;
+        state[4] = occupancy;
+        state[5] = playerOccupancy;
+        state[6] = opponentOccupancy;
+        state[7] = (isChecked ? 1 : 0) | (isDoubleChecked ? 2 : 0);
+    }
+
+    public void restoreState(long[] state) {
+        player = manager.getPlayer();
+        opponent = manager.getOpponent();
+        attackMask = state[0];
+        pinMask = state[1];
+        checkMask = state[2];
+        pawnAttackMask = state[3];
+        occupancy = state[4];
+        playerOccupancy = state[5];
+        opponentOccupancy = state[6];
+        isChecked = (state[7] & 1) != 0;
+        isDoubleChecked = (state[7] & 2) != 0;
+    }
+
+    // whether the side to move is in check, looking from the king outwards instead of setting up the masks
+    public boolean isInCheck() {
+        Player player = manager.getPlayer();
+        Player opponent = manager.getOpponent();
+        byte kingSquare = player.kingSquare;
+        long occupancy = player.getOccupancy() | opponent.getOccupancy();
+
+        if ((AttackUtil.getRookAttacks(kingSquare, occupancy) & (opponent.rooks.bitBoard | opponent.queens.bitBoard)) != 0) return true;
+        if ((AttackUtil.getBishopAttacks(kingSquare, occupancy) & (opponent.bishops.bitBoard | opponent.queens.bitBoard)) != 0) return true;
+        for (byte square : BoardUtil.KNIGHT_MOVES[kingSquare]) {
+            if ((opponent.knights.bitBoard & BoardUtil.squareMask[square]) != 0) return true;
+        }
+
+        // the opponent's pawns attack the king from the ranks in front of it
+        byte file = BoardUtil.getFile(kingSquare);
+        int forward = player.color == Player.WHITE ? 8 : -8;
+        long pawnSquares = 0;
+        if (file > 0 && kingSquare + forward - 1 >= 0 && kingSquare + forward - 1 < 64) pawnSquares |= BoardUtil.squareMask[kingSquare + forward - 1];
+        if (file < 7 && kingSquare + forward + 1 >= 0 && kingSquare + forward + 1 < 64) pawnSquares |= BoardUtil.squareMask[kingSquare + forward + 1];
+        return (opponent.pawns.bitBoard & pawnSquares) != 0;
+    }
+
+    public ArrayList<Move> getLegalMoves(boolean capturesOnly) {
+        int[] moves = new int[MAX_MOVES];
+        int cnt = getLegalMoves(moves, capturesOnly);
+
+        ArrayList<Move> moveList = new ArrayList<>(cnt);
+        for (int i = 0; i < cnt; i++) {
+            moveList.add(new Move(moves[i]));
+        }
+        return moveList;
     }
 
     public void setAttackMask() {
         isChecked = isDoubleChecked = false;
         attackMask = pinMask = checkMask = pawnAttackMask = 0;
-        setSlidingAttackMask(opponent.queens, 0, 7);
-        setSlidingAttackMask(opponent.rooks, 0, 3);
-        setSlidingAttackMask(opponent.bishops, 4, 7);
+        playerOccupancy = player.getOccupancy();
+        opponentOccupancy = opponent.getOccupancy();
+        occupancy = playerOccupancy | opponentOccupancy;
+
+        setSlidingAttackMask(opponent.queens, true, true);
+        setSlidingAttackMask(opponent.rooks, true, false);
+        setSlidingAttackMask(opponent.bishops, false, true);
         setKnightAttackMask(opponent.knights);
         setPawnAttackMask(opponent.pawns);
 
@@ -46,58 +165,34 @@ public class MoveGenerator {
         }
     }
 
-    private void setSlidingAttackMask(Pieces pieces, int dirStart, int dirEnd) {
+    private void setSlidingAttackMask(Pieces pieces, boolean straight, boolean diagonal) {
+        long kingMask = BoardUtil.squareMask[player.kingSquare];
+        // the king does not block the ray, it can not step back along the line of the attack
+        long occupancyWithoutKing = occupancy ^ kingMask;
+
         for (int i = 0; i < pieces.currentCnt; i++) {
             byte pieceSquare = pieces.positions[i];
+            long rays = 0;
+            if (straight) {
+                attackMask |= AttackUtil.getRookAttacks(pieceSquare, occupancyWithoutKing);
+                rays |= AttackUtil.rookRays[pieceSquare];
+            }
+            if (diagonal) {
+                attackMask |= AttackUtil.getBishopAttacks(pieceSquare, occupancyWithoutKing);
+                rays |= AttackUtil.bishopRays[pieceSquare];
+            }
+            if ((rays & kingMask) == 0) {
+                continue;
+            }
 
-            for (int dir = dirStart; dir <= dirEnd; dir++) {
-                byte maxMoves = BoardUtil.moveCnt[pieceSquare][dir];
-                byte currentMoves = 0;
-
-                long currentAttackMask = 0;
-                long currentPinMask = 0;
-                boolean otherPieceFound = false;
-
-                while (currentMoves++ < maxMoves) {
-                    byte targetSquare = (byte)(pieceSquare + BoardUtil.moveOffsets[dir] * currentMoves);
-                    byte targetPiece = PieceUtil.getPieceType(manager.board[targetSquare]);
-                    long squareMask = BoardUtil.squareMask[targetSquare];
-
-                    if (!otherPieceFound) {
-                        currentAttackMask |= squareMask;
-                    }
-                    if (targetPiece != PieceUtil.TYPE_NONE || otherPieceFound) {
-                        if (targetPiece != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color) {
-                            break;
-                        }
-
-                        if (targetPiece == PieceUtil.TYPE_KING) {
-                            if (!otherPieceFound) {
-                                if (isChecked) isDoubleChecked = true;
-                                else isChecked = true;
-                                checkMask |= (currentAttackMask | BoardUtil.squareMask[pieceSquare]);
-
-                                if (currentMoves < maxMoves) {
-                                    targetSquare += BoardUtil.moveOffsets[dir];
-                                    currentAttackMask |= BoardUtil.squareMask[targetSquare];
-                                }
-                            } else {
-                                pinMask |= currentPinMask;
-                            }
-                            break;
-                        } else if (targetPiece != PieceUtil.TYPE_NONE) {
-                            if (!otherPieceFound) {
-                                // first piece found
-                                otherPieceFound = true;
-                                currentPinMask |= squareMask;
-                            } else {
-                                // second piece found before the king
-                                break;
-                            }
-                        }
-                    }
-                }
-                attackMask |= currentAttackMask;
+            long blockers = AttackUtil.betweenMask[pieceSquare][player.kingSquare] & occupancy;
+            if (blockers == 0) {
+                if (isChecked) isDoubleChecked = true;
+                else isChecked = true;
+                checkMask |= AttackUtil.betweenMask[pieceSquare][player.kingSquare] | BoardUtil.squareMask[pieceSquare];
+            } else if ((blockers & (blockers - 1)) == 0 && (blockers & playerOccupancy) != 0) {
+                // single piece of the player between the slider and the king
+                pinMask |= blockers;
             }
         }
     }
@@ -164,84 +259,85 @@ public class MoveGenerator {
         return (BoardUtil.squareMask[square] & pawnAttackMask) != 0;
     }
 
-    private void generateLegalMoves(Move previousBestMove, boolean capturesOnly) {
-        legalMoves = new ArrayList<>();
-        if (previousBestMove != null) {
-            previousBestMove.moveGain = Integer.MAX_VALUE;
-            legalMoves.add(previousBestMove);
-        }
+    private void addMove(byte startSquare, byte targetSquare, byte moveType, int moveGain) {
+        legalMoves[moveCnt++] = Move.encode(startSquare, targetSquare, moveType, moveGain);
+    }
 
+    private void generateLegalMoves() {
         // king moves
-        for (byte targetSquare : BoardUtil.KING_MOVES[player.kingSquare]) {
-            if (isSquareSafe(targetSquare)) {
-                byte targetPiece = PieceUtil.getPieceType(manager.board[targetSquare]);
-                if (targetPiece == PieceUtil.TYPE_NONE && !capturesOnly) {
-                    legalMoves.add(new Move(player.kingSquare, targetSquare, Move.MOVE_DEFAULT, 0));
-                } else if (targetPiece != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color) {
-                    legalMoves.add(new Move(player.kingSquare, targetSquare, Move.MOVE_DEFAULT, PieceUtil.getPieceValue(targetPiece)));
+        boolean kingMoves = (BoardUtil.squareMask[player.kingSquare] & pieceFilter) != 0;
+        if (kingMoves) {
+            for (byte targetSquare : BoardUtil.KING_MOVES[player.kingSquare]) {
+                if (isSquareSafe(targetSquare)) {
+                    byte targetPiece = PieceUtil.getPieceType(manager.board[targetSquare]);
+                    if (targetPiece == PieceUtil.TYPE_NONE && generateQuiets) {
+                        addMove(player.kingSquare, targetSquare, Move.MOVE_DEFAULT, 0);
+                    } else if (targetPiece != PieceUtil.TYPE_NONE && generateCaptures && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color) {
+                        addMove(player.kingSquare, targetSquare, Move.MOVE_DEFAULT, PieceUtil.getPieceValue(targetPiece));
+                    }
                 }
             }
         }
         if (isDoubleChecked) return;
 
-        boolean canCastleKingSide = (player.color == Player.WHITE ? (manager.castleRights & BoardUtil.WHITE_KSC_MASK) : (manager.castleRights & BoardUtil.BLACK_KSC_MASK)) != 0;
-        boolean canCastleQueenSide = (player.color == Player.WHITE ? (manager.castleRights & BoardUtil.WHITE_QSC_MASK) : (manager.castleRights & BoardUtil.BLACK_QSC_MASK)) != 0;
+        boolean canCastleKingSide = kingMoves && generateQuiets && (player.color == Player.WHITE ? (manager.castleRights & BoardUtil.WHITE_KSC_MASK) : (manager.castleRights & BoardUtil.BLACK_KSC_MASK)) != 0;
+        boolean canCastleQueenSide = kingMoves && generateQuiets && (player.color == Player.WHITE ? (manager.castleRights & BoardUtil.WHITE_QSC_MASK) : (manager.castleRights & BoardUtil.BLACK_QSC_MASK)) != 0;
 
         // Castling moves
         if (!isChecked && canCastleKingSide && manager.board[player.kingSquare + 1] == PieceUtil.TYPE_NONE && isSquareSafe((byte)(player.kingSquare + 1)) && manager.board[player.kingSquare + 2] == PieceUtil.TYPE_NONE && isSquareSafe((byte)(player.kingSquare + 2))) {
-            legalMoves.add(new Move(player.kingSquare, (byte)(player.kingSquare + 2), Move.MOVE_CKS, 2000));
+            addMove(player.kingSquare, (byte)(player.kingSquare + 2), Move.MOVE_CKS, 2000);
         }
         if (!isChecked && canCastleQueenSide && manager.board[player.kingSquare - 1] == PieceUtil.TYPE_NONE && isSquareSafe((byte)(player.kingSquare - 1)) && manager.board[player.kingSquare - 2] == PieceUtil.TYPE_NONE && isSquareSafe((byte)(player.kingSquare - 2)) && manager.board[player.kingSquare - 3] == PieceUtil.TYPE_NONE) {
-            legalMoves.add(new Move(player.kingSquare, (byte)(player.kingSquare - 2), Move.MOVE_CQS, 2000));
+            addMove(player.kingSquare, (byte)(player.kingSquare - 2), Move.MOVE_CQS, 2000);
         }
 
-        generateSlidingMoves(player.queens, 0, 7, capturesOnly);
-        generateSlidingMoves(player.rooks, 0, 3, capturesOnly);
-        generateSlidingMoves(player.bishops, 4, 7, capturesOnly);
-        generateKnightMoves(player.knights, capturesOnly);
-        generatePawnMoves(player.pawns, capturesOnly);
+        generateSlidingMoves(player.queens, true, true);
+        generateSlidingMoves(player.rooks, true, false);
+        generateSlidingMoves(player.bishops, false, true);
+        generateKnightMoves(player.knights);
+        generatePawnMoves(player.pawns);
     }
 
-    private void generateSlidingMoves(Pieces pieces, int dirStart, int dirEnd, boolean capturesOnly) {
+    private void generateSlidingMoves(Pieces pieces, boolean straight, boolean diagonal) {
+        long targetMask = (generateCaptures ? opponentOccupancy : 0) | (generateQuiets ? ~occupancy : 0);
         for (int i = 0; i < pieces.currentCnt; i++) {
             byte pieceSquare = pieces.positions[i];
+            if ((BoardUtil.squareMask[pieceSquare] & pieceFilter) == 0) {
+                continue;
+            }
 
-            for (int dir = dirStart; dir <= dirEnd; dir++) {
-                byte maxMoves = BoardUtil.moveCnt[pieceSquare][dir];
-                if (maxMoves > 0 && isSquarePinned(pieceSquare) && !BoardUtil.isMovingOnThePinLine(player.kingSquare, pieceSquare, pieceSquare + BoardUtil.moveOffsets[dir])) {
-                    // the pinned piece must move in the direction of the pin
-                    continue;
-                }
+            long targets = 0;
+            if (straight) targets |= AttackUtil.getRookAttacks(pieceSquare, occupancy);
+            if (diagonal) targets |= AttackUtil.getBishopAttacks(pieceSquare, occupancy);
+            targets &= targetMask;
 
-                byte currentMoves = 0;
-                while (currentMoves++ < maxMoves) {
-                    byte targetSquare = (byte)(pieceSquare + BoardUtil.moveOffsets[dir] * currentMoves);
-                    byte targetPiece = PieceUtil.getPieceType(manager.board[targetSquare]);
-                    byte targetPieceColor = PieceUtil.getPieceColor(manager.board[targetSquare]);
+            if (isChecked) {
+                targets &= checkMask;
+            }
+            if (isSquarePinned(pieceSquare)) {
+                // the pinned piece must move in the direction of the pin
+                targets &= AttackUtil.pinLineMask[player.kingSquare][pieceSquare];
+            }
 
-                    if (isChecked && !isBlockingCheck(targetSquare)) {
-                        if (targetPiece != PieceUtil.TYPE_NONE) break;
-                        else continue;
-                    }
+            int loss = PieceUtil.getPieceValue(manager.board[pieceSquare]);
+            while (targets != 0) {
+                byte targetSquare = (byte)Long.numberOfTrailingZeros(targets);
+                targets &= targets - 1;
 
-                    int loss = isAttackedByPawn(targetSquare) ? PieceUtil.getPieceValue(manager.board[pieceSquare]) : 0;
-                    if (targetPiece != PieceUtil.TYPE_NONE) {
-                        if (targetPieceColor == opponent.color) {
-                            legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, PieceUtil.getPieceValue(targetPiece) - loss));
-                        }
-                        break;
-                    } else if (!capturesOnly) {
-                        legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, loss));
-                    }
+                int targetLoss = isAttackedByPawn(targetSquare) ? loss : 0;
+                if (manager.board[targetSquare] != PieceUtil.TYPE_NONE) {
+                    addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, PieceUtil.getPieceValue(manager.board[targetSquare]) - targetLoss);
+                } else {
+                    addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, -targetLoss);
                 }
             }
         }
     }
 
-    private void generateKnightMoves(Pieces pieces, boolean capturesOnly) {
+    private void generateKnightMoves(Pieces pieces) {
         for (int i = 0; i < pieces.currentCnt; i++) {
             byte pieceSquare = pieces.positions[i];
-            if (isSquarePinned(pieceSquare)) {
+            if ((BoardUtil.squareMask[pieceSquare] & pieceFilter) == 0 || isSquarePinned(pieceSquare)) {
                 // pinned knight can not move
                 continue;
             }
@@ -253,18 +349,21 @@ public class MoveGenerator {
 
                 byte targetPiece = PieceUtil.getPieceType(manager.board[targetSquare]);
                 int loss = isAttackedByPawn(targetSquare) ? PieceUtil.getPieceValue(manager.board[pieceSquare]) : 0;
-                if (targetPiece == PieceUtil.TYPE_NONE && !capturesOnly) {
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, loss));
-                } else if (targetPiece != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color) {
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, PieceUtil.getPieceValue(targetPiece) - loss));
+                if (targetPiece == PieceUtil.TYPE_NONE && generateQuiets) {
+                    addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, -loss);
+                } else if (targetPiece != PieceUtil.TYPE_NONE && generateCaptures && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color) {
+                    addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, PieceUtil.getPieceValue(targetPiece) - loss);
                 }
             }
         }
     }
 
-    private void generatePawnMoves(Pieces pieces, boolean capturesOnly) {
+    private void generatePawnMoves(Pieces pieces) {
         for (int i = 0; i < pieces.currentCnt; i++) {
             byte pieceSquare = pieces.positions[i];
+            if ((BoardUtil.squareMask[pieceSquare] & pieceFilter) == 0) {
+                continue;
+            }
             byte rank = (byte)(pieceSquare / 8);
             byte file = (byte)(pieceSquare % 8);
             boolean isPawnPinned = isSquarePinned(pieceSquare);
@@ -286,60 +385,63 @@ public class MoveGenerator {
 
             // move ahead
             byte targetSquare = (byte)(pieceSquare + straightOffset);
-            if (manager.board[targetSquare] == PieceUtil.TYPE_NONE && !capturesOnly && (!isPawnPinned || BoardUtil.isMovingOnThePinLine(player.kingSquare, pieceSquare, targetSquare))) {
+            if (manager.board[targetSquare] == PieceUtil.TYPE_NONE && generateQuiets && (!isPawnPinned || BoardUtil.isMovingOnThePinLine(player.kingSquare, pieceSquare, targetSquare))) {
                 if (!isChecked || isBlockingCheck(targetSquare)) {
                     if (rank == promotionRank) {
                         // promotion moves
-                        legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_QUEEN, 2500));
-                        legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_ROOK, 2000));
-                        legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_BISHOP, 1500));
-                        legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_KNIGHT, 1400));
+                        addMove(pieceSquare, targetSquare, Move.MOVE_P_QUEEN, 2500);
+                        addMove(pieceSquare, targetSquare, Move.MOVE_P_ROOK, 2000);
+                        addMove(pieceSquare, targetSquare, Move.MOVE_P_BISHOP, 1500);
+                        addMove(pieceSquare, targetSquare, Move.MOVE_P_KNIGHT, 1400);
                     } else {
-                        legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, 0));
+                        addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, 0);
                     }
                 }
 
                 targetSquare += straightOffset;
                 if (rank == twoSquaresAheadRank && manager.board[targetSquare] == PieceUtil.TYPE_NONE && (!isChecked || isBlockingCheck(targetSquare))) {
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_2_SQUARES, 0));
+                    addMove(pieceSquare, targetSquare, Move.MOVE_2_SQUARES, 0);
                 }
             }
 
             // capture piece left
             targetSquare = (byte)(pieceSquare + leftOffset);
-            if (file > 0 && manager.board[targetSquare] != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color
+            if (generateCaptures && file > 0 && manager.board[targetSquare] != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color
                     && (!isPawnPinned || BoardUtil.isMovingOnThePinLine(player.kingSquare, pieceSquare, targetSquare))
                     && (!isChecked || isBlockingCheck(targetSquare))) {
                 int opponentPieceValue = PieceUtil.getPieceValue(manager.board[targetSquare]);
                 if (rank == promotionRank) {
                     // promotion moves
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_QUEEN, 2500 + opponentPieceValue));
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_ROOK, 2000 + opponentPieceValue));
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_BISHOP, 1500 + opponentPieceValue));
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_KNIGHT, 1400 + opponentPieceValue));
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_QUEEN, 2500 + opponentPieceValue);
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_ROOK, 2000 + opponentPieceValue);
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_BISHOP, 1500 + opponentPieceValue);
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_KNIGHT, 1400 + opponentPieceValue);
                 } else {
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, opponentPieceValue));
+                    addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, opponentPieceValue);
                 }
             }
 
             // capture piece right
             targetSquare = (byte)(pieceSquare + rightOffset);
-            if (file < 7 && manager.board[targetSquare] != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color
+            if (generateCaptures && file < 7 && manager.board[targetSquare] != PieceUtil.TYPE_NONE && PieceUtil.getPieceColor(manager.board[targetSquare]) == opponent.color
                     && (!isPawnPinned || BoardUtil.isMovingOnThePinLine(player.kingSquare, pieceSquare, targetSquare))
                     && (!isChecked || isBlockingCheck(targetSquare))) {
                 int opponentPieceValue = PieceUtil.getPieceValue(manager.board[targetSquare]);
                 if (rank == promotionRank) {
                     // promotion moves
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_QUEEN, PieceUtil.QUEEN_VALUE + opponentPieceValue));
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_ROOK, PieceUtil.ROOK_VALUE + opponentPieceValue));
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_BISHOP, PieceUtil.BISHOP_VALUE + opponentPieceValue));
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_P_KNIGHT, PieceUtil.KNIGHT_VALUE + opponentPieceValue));
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_QUEEN, PieceUtil.QUEEN_VALUE + opponentPieceValue);
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_ROOK, PieceUtil.ROOK_VALUE + opponentPieceValue);
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_BISHOP, PieceUtil.BISHOP_VALUE + opponentPieceValue);
+                    addMove(pieceSquare, targetSquare, Move.MOVE_P_KNIGHT, PieceUtil.KNIGHT_VALUE + opponentPieceValue);
                 } else {
-                    legalMoves.add(new Move(pieceSquare, targetSquare, Move.MOVE_DEFAULT, opponentPieceValue));
+                    addMove(pieceSquare, targetSquare, Move.MOVE_DEFAULT, opponentPieceValue);
                 }
             }
 
             // capture en passant
+            if (!generateCaptures) {
+                continue;
+            }
             if (file > 0 && manager.epSquare == pieceSquare + leftOffset) {
                 generateEPMove(rank, file, pieceSquare, leftOffset, straightOffset, isPawnPinned);
             } else if (file < 7 && manager.epSquare == pieceSquare + rightOffset) {
@@ -401,7 +503,7 @@ public class MoveGenerator {
         }
 
         if (canCapture) {
-            legalMoves.add(new Move(pieceSquare, (byte)(pieceSquare + dirOffset), Move.MOVE_EP, 90));
+            addMove(pieceSquare, (byte)(pieceSquare + dirOffset), Move.MOVE_EP, 90);
         }
     }
 }
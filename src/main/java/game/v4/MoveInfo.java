@@ -14,4 +14,11 @@ public class MoveInfo {
         this.castleRights = castleRights;
         this.halfMoveClock = halfMoveClock;
     }
-}
\ No newline at end of file
+
+    public void set(byte epSquare, byte castleRights, byte halfMoveClock) {
+        this.epSquare = epSquare;
+        piece = PieceUtil.TYPE_NONE;
+        this.castleRights = castleRights;
+        this.halfMoveClock = halfMoveClock;
+    }
+}
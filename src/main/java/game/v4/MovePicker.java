@@ -0,0 +1,222 @@
+package game.v4;
+
+import util.PieceUtil;
+
+// hands out the moves of a node best first, one at a time : the table move, captures that don't lose material, killers and
+// the counter move, the quiet moves and the losing captures last. a stage is only generated once the ones before it failed
+// to cut off, so cut nodes usually never see their quiet moves
+public class MovePicker {
+    private static final int STAGE_TT_MOVE = 0;
+    private static final int STAGE_GENERATE_CAPTURES = 1;
+    private static final int STAGE_CAPTURES = 2;
+    private static final int STAGE_REFUTATIONS = 3;
+    private static final int STAGE_GENERATE_QUIETS = 4;
+    private static final int STAGE_QUIETS = 5;
+    private static final int STAGE_BAD_CAPTURES = 6;
+    private static final int STAGE_DONE = 7;
+    // added to the score of captures that lose material, keeps them below every other capture
+    private static final int BAD_CAPTURE_SCORE = -16384;
+
+    private final Manager manager;
+    private final MoveGenerator generator;
+    private final StaticExchange staticExchange;
+    // the captures first, followed by the quiet moves
+    private final int[] moves;
+    // the generator is shared by all plies, its masks for this node are kept here between the stages
+    private final long[] generatorState;
+
+    private int stage;
+    private int moveCnt;
+    private int index;
+    // the losing captures are left between these two when the capture stage ends
+    private int badCaptureIndex;
+    private int captureCnt;
+    private boolean capturesOnly;
+    private boolean withQuiets;
+    private boolean checked;
+
+    private int ttMove;
+    // the two killers and the counter move, quiet moves that refuted other moves before
+    private final int[] refutations;
+    private int refutationIndex;
+    // history scores of the side to move, indexed by start and target square
+    private int[][] history;
+
+    public MovePicker(Manager manager, MoveGenerator generator, StaticExchange staticExchange, int[] moves) {
+        this.manager = manager;
+        this.generator = generator;
+        this.staticExchange = staticExchange;
+        this.moves = moves;
+        generatorState = new long[MoveGenerator.STATE_SIZE];
+        refutations = new int[3];
+    }
+
+    // sets up the attack masks of the current position, has to come before isLegal and next
+    public void prepare() {
+        generator.prepare();
+        generator.saveState(generatorState);
+        checked = generator.isChecked;
+    }
+
+    public boolean isChecked() {
+        return checked;
+    }
+
+    public boolean isLegal(int move) {
+        generator.restoreState(generatorState);
+        return generator.isLegalMove(move);
+    }
+
+    public boolean hasLegalMove() {
+        generator.restoreState(generatorState);
+        return generator.generateMoves(moves, MoveGenerator.MODE_ALL) > 0;
+    }
+
+    public void init(int ttMove, int killer1, int killer2, int counterMove, int[][] history) {
+        this.ttMove = ttMove;
+        refutations[0] = killer1;
+        refutations[1] = killer2;
+        refutations[2] = counterMove;
+        this.history = history;
+        capturesOnly = false;
+        stage = STAGE_TT_MOVE;
+    }
+
+    // captures only, without the losing ones, for the quiescence search. the quiet moves can follow unordered, the
+    // search picks the checks among them
+    public void initCaptures(boolean withQuiets) {
+        ttMove = refutations[0] = refutations[1] = refutations[2] = Move.NONE;
+        history = null;
+        capturesOnly = true;
+        this.withQuiets = withQuiets;
+        stage = STAGE_GENERATE_CAPTURES;
+    }
+
+    public boolean isCapture(int move) {
+        return manager.board[Move.getTargetSquare(move)] != PieceUtil.TYPE_NONE || Move.getMoveType(move) == Move.MOVE_EP;
+    }
+
+    // returns Move.NONE once all moves have been handed out
+    public int next() {
+        while (true) {
+            switch (stage) {
+                case STAGE_TT_MOVE -> {
+                    stage = STAGE_GENERATE_CAPTURES;
+                    if (ttMove != Move.NONE && isLegal(ttMove)) {
+                        return ttMove;
+                    }
+                    ttMove = Move.NONE;
+                }
+                case STAGE_GENERATE_CAPTURES -> {
+                    generator.restoreState(generatorState);
+                    moveCnt = captureCnt = generator.generateMoves(moves, MoveGenerator.MODE_CAPTURES);
+                    for (int i = 0; i < moveCnt; i++) {
+                        moves[i] = Move.setMoveGain(moves[i], getCaptureScore(moves[i]));
+                    }
+                    index = 0;
+                    stage = STAGE_CAPTURES;
+                }
+                case STAGE_CAPTURES -> {
+                    while (index < moveCnt) {
+                        int move = pickBest();
+                        if (Move.getMoveGain(move) < 0) {
+                            // only losing captures are left, put back for the last stage
+                            index--;
+                            break;
+                        }
+                        if (!Move.isSameMove(move, ttMove)) {
+                            return move;
+                        }
+                    }
+                    badCaptureIndex = index;
+                    refutationIndex = 0;
+                    stage = !capturesOnly ? STAGE_REFUTATIONS : withQuiets ? STAGE_GENERATE_QUIETS : STAGE_DONE;
+                }
+                case STAGE_REFUTATIONS -> {
+                    while (refutationIndex < refutations.length) {
+                        int move = refutations[refutationIndex++];
+                        // one that captures here was already handed out with the captures
+                        if (move != Move.NONE && !isRefutationRepeated(move, refutationIndex - 1) && !isCapture(move) && isLegal(move)) {
+                            return move;
+                        }
+                        refutations[refutationIndex - 1] = Move.NONE;
+                    }
+                    stage = STAGE_GENERATE_QUIETS;
+                }
+                case STAGE_GENERATE_QUIETS -> {
+                    generator.restoreState(generatorState);
+                    moveCnt = generator.generateMoves(moves, captureCnt, MoveGenerator.MODE_QUIETS);
+                    for (int i = captureCnt; i < moveCnt && history != null; i++) {
+                        int move = moves[i];
+                        moves[i] = Move.setMoveGain(move, Move.getMoveGain(move) + history[Move.getStartSquare(move)][Move.getTargetSquare(move)]);
+                    }
+                    index = captureCnt;
+                    stage = STAGE_QUIETS;
+                }
+                case STAGE_QUIETS -> {
+                    while (index < moveCnt) {
+                        int move = pickBest();
+                        if (!Move.isSameMove(move, ttMove) && !Move.isSameMove(move, refutations[0]) && !Move.isSameMove(move, refutations[1]) && !Move.isSameMove(move, refutations[2])) {
+                            return move;
+                        }
+                    }
+                    stage = capturesOnly ? STAGE_DONE : STAGE_BAD_CAPTURES;
+                }
+                case STAGE_BAD_CAPTURES -> {
+                    while (badCaptureIndex < captureCnt) {
+                        int move = moves[badCaptureIndex++];
+                        if (!Move.isSameMove(move, ttMove)) {
+                            return move;
+                        }
+                    }
+                    stage = STAGE_DONE;
+                }
+                default -> {
+                    return Move.NONE;
+                }
+            }
+        }
+    }
+
+    private boolean isRefutationRepeated(int move, int index) {
+        if (Move.isSameMove(move, ttMove)) {
+            return true;
+        }
+        for (int i = 0; i < index; i++) {
+            if (Move.isSameMove(move, refutations[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // selection sort, one step at a time : most nodes only look at their first few moves
+    private int pickBest() {
+        int best = index;
+        for (int i = index + 1; i < moveCnt; i++) {
+            if (moves[best] < moves[i]) {
+                best = i;
+            }
+        }
+        int move = moves[best];
+        moves[best] = moves[index];
+        moves[index++] = move;
+        return move;
+    }
+
+    // most valuable victim first, least valuable attacker among those, and the ones that lose material after the others.
+    // taking a piece worth at least the attacker can't lose anything, only the other captures need the exchange played out
+    private int getCaptureScore(int move) {
+        byte moveType = Move.getMoveType(move);
+        int victim = moveType == Move.MOVE_EP ? PieceUtil.PAWN_VALUE : PieceUtil.getPieceValue(manager.board[Move.getTargetSquare(move)]);
+        int attacker = PieceUtil.getPieceValue(manager.board[Move.getStartSquare(move)]);
+        int score = victim * 8 - attacker / 8;
+        if (Move.isPromotionMove(moveType)) {
+            score += PieceUtil.getPieceValue(PieceUtil.getPromotionPiece(moveType));
+        }
+        if (attacker > victim && staticExchange.evaluate(move) < 0) {
+            score += BAD_CAPTURE_SCORE;
+        }
+        return score;
+    }
+}
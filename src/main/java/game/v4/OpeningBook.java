@@ -0,0 +1,159 @@
+package game.v4;
+
+import util.BoardUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// a book file of 16 byte records sorted by key : position key (8 bytes), move (2), weight (2) and 4 unused bytes, all big
+// endian, the layout of a polyglot book. the keys are this engine's zobrist hashes, built by OpeningBookBuilder. books
+// from before the keys used all 64 bits never match a position and have to be rebuilt.
+// the file is memory mapped once per jvm and shared by every manager, it never gets onto the heap
+public class OpeningBook {
+    public static final String DEFAULT_FILE = "book.bin";
+    static final int RECORD_SIZE = 16;
+
+    // polyglot move : target file (3 bits), target rank (3), start file (3), start rank (3), promotion piece (3)
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int NO_PROMOTION = 0;
+
+    private static final ConcurrentHashMap<Path, OpeningBook> books = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer records;
+    private final int recordCnt;
+
+    private OpeningBook(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() % RECORD_SIZE != 0 || channel.size() / RECORD_SIZE > Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException("Not a book file : " + path);
+            }
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            recordCnt = (int)(channel.size() / RECORD_SIZE);
+        }
+    }
+
+    // the same book for every caller with the same file, mapped on the first call
+    public static OpeningBook open(Path path) throws IOException {
+        try {
+            return books.computeIfAbsent(path.toAbsolutePath().normalize(), key -> {
+                try {
+                    return new OpeningBook(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // the book in the given file, null when there is none or it can't be read
+    public static OpeningBook load(String file) {
+        Path path = Path.of(file);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            return open(path);
+        } catch (IOException e) {
+            System.err.println("Couldn't open the opening book : " + e.getMessage());
+            return null;
+        }
+    }
+
+    public int getRecordCnt() {
+        return recordCnt;
+    }
+
+    // picks one of the book moves of the position at random, the better weighted ones more often. null when the
+    // position isn't in the book
+    public Move probe(Manager manager) {
+        long key = manager.engine.zobrist.hash;
+        int first = findFirst(key);
+        int totalWeight = 0;
+        int last = first;
+        for (; last < recordCnt && getKey(last) == key; last++) {
+            totalWeight += getWeight(last);
+        }
+        if (first == last) {
+            return null;
+        }
+
+        int record = first;
+        int choice = totalWeight > 0 ? ThreadLocalRandom.current().nextInt(totalWeight) : 0;
+        while (record < last - 1 && (choice -= getWeight(record)) >= 0) {
+            record++;
+        }
+        // only a damaged file or a key collision gives a move that isn't legal here
+        int bookMove = getMove(record);
+        int[] legalMoves = manager.engine.getRootMoveBuffer();
+        int moveCnt = manager.engine.getMoveGenerator().getLegalMoves(legalMoves, false);
+        for (int i = 0; i < moveCnt; i++) {
+            if (encodeMove(legalMoves[i]) == bookMove) {
+                return new Move(legalMoves[i]);
+            }
+        }
+        return null;
+    }
+
+    // the first record whose key isn't below the given one, keys are compared unsigned as polyglot sorts them
+    private int findFirst(long key) {
+        int low = 0;
+        int high = recordCnt;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(getKey(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long getKey(int record) {
+        return records.getLong(record * RECORD_SIZE);
+    }
+
+    private int getMove(int record) {
+        return records.getShort(record * RECORD_SIZE + 8) & 0xFFFF;
+    }
+
+    private int getWeight(int record) {
+        return records.getShort(record * RECORD_SIZE + 10) & 0xFFFF;
+    }
+
+    static int encodeMove(Move move) {
+        return encodeMove(Move.encode(move.startSquare, move.targetSquare, move.moveType, 0));
+    }
+
+    // castling is written as the king taking its own rook, as in polyglot books
+    static int encodeMove(int move) {
+        byte startSquare = Move.getStartSquare(move);
+        byte targetSquare = Move.getTargetSquare(move);
+        byte moveType = Move.getMoveType(move);
+        if (moveType == Move.MOVE_CKS) {
+            targetSquare = (byte)(startSquare + 3);
+        } else if (moveType == Move.MOVE_CQS) {
+            targetSquare = (byte)(startSquare - 4);
+        }
+
+        int promotion = switch (moveType) {
+            case Move.MOVE_P_KNIGHT -> 1;
+            case Move.MOVE_P_BISHOP -> 2;
+            case Move.MOVE_P_ROOK -> 3;
+            case Move.MOVE_P_QUEEN -> 4;
+            default -> NO_PROMOTION;
+        };
+        return BoardUtil.getFile(targetSquare) | BoardUtil.getRank(targetSquare) << 3
+                | BoardUtil.getFile(startSquare) << 6 | BoardUtil.getRank(startSquare) << 9
+                | promotion << PROMOTION_SHIFT;
+    }
+}
@@ -0,0 +1,253 @@
+package game.v4;
+
+import util.BoardUtil;
+import util.PieceUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// turns pgn games into an OpeningBook file. every move of the first plies of a game counts for the side that played it,
+// 2 for a win and 1 for a draw as polyglot weighs them, moves that only lost are left out
+public class OpeningBookBuilder {
+    public static final int DEFAULT_MAX_PLIES = 24;
+    public static final int DEFAULT_MIN_GAMES = 2;
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final int MAX_WEIGHT = 0xFFFF;
+
+    private final int maxPlies;
+    private final int minGames;
+    // position key -> book move -> {games, score}
+    private final HashMap<Long, HashMap<Integer, int[]>> positions;
+    // every game is replayed on the same manager, it never searches so the smallest table will do
+    private final Manager manager;
+    private int gameCnt;
+    private int skippedGameCnt;
+
+    public OpeningBookBuilder(int maxPlies, int minGames) {
+        this.maxPlies = maxPlies;
+        this.minGames = minGames;
+        positions = new HashMap<>();
+        manager = new Manager(START_FEN, new TranspositionTable(1));
+    }
+
+    // usage : OpeningBookBuilder <book file> <pgn file>... [-plies n] [-min n]
+    public static void main(String[] args) throws IOException {
+        int maxPlies = DEFAULT_MAX_PLIES;
+        int minGames = DEFAULT_MIN_GAMES;
+        List<Path> pgnFiles = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-plies" -> maxPlies = Integer.parseInt(args[++i]);
+                case "-min" -> minGames = Integer.parseInt(args[++i]);
+                default -> pgnFiles.add(Path.of(args[i]));
+            }
+        }
+        if (pgnFiles.isEmpty()) {
+            System.err.println("Usage : OpeningBookBuilder <book file> <pgn file>... [-plies n] [-min n]");
+            return;
+        }
+
+        OpeningBookBuilder builder = new OpeningBookBuilder(maxPlies, minGames);
+        for (Path pgnFile : pgnFiles) {
+            builder.addGames(pgnFile);
+        }
+        int recordCnt = builder.write(Path.of(args[0]));
+        System.out.println(builder.getGameCnt() + " games, " + builder.getSkippedGameCnt() + " skipped, " + recordCnt + " book moves");
+    }
+
+    public void addGames(Path pgnFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(pgnFile)) {
+            HashMap<String, String> tags = new HashMap<>();
+            StringBuilder moveText = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("[")) {
+                    // the tags of the next game
+                    if (!moveText.isEmpty()) {
+                        addGame(tags, moveText.toString());
+                        tags.clear();
+                        moveText.setLength(0);
+                    }
+                    int valueStart = line.indexOf('"');
+                    int valueEnd = line.lastIndexOf('"');
+                    if (valueStart > 0 && valueEnd > valueStart) {
+                        tags.put(line.substring(1, valueStart).trim(), line.substring(valueStart + 1, valueEnd));
+                    }
+                } else if (!line.startsWith("%")) {
+                    int commentStart = line.indexOf(';');
+                    moveText.append(commentStart >= 0 ? line.substring(0, commentStart) : line).append(' ');
+                }
+            }
+            if (!moveText.isEmpty()) {
+                addGame(tags, moveText.toString());
+            }
+        }
+    }
+
+    private void addGame(HashMap<String, String> tags, String moveText) {
+        // 2 when white won, 1 for a draw and 0 when black won, unfinished games don't count
+        int whiteScore = switch (tags.getOrDefault("Result", "*")) {
+            case "1-0" -> 2;
+            case "1/2-1/2" -> 1;
+            case "0-1" -> 0;
+            default -> -1;
+        };
+        if (whiteScore < 0) {
+            skippedGameCnt++;
+            return;
+        }
+        try {
+            manager.setPosition(tags.getOrDefault("FEN", START_FEN));
+        } catch (Exception e) {
+            skippedGameCnt++;
+            return;
+        }
+
+        gameCnt++;
+        int ply = 0;
+        for (String san : getMoves(moveText)) {
+            if (ply++ >= maxPlies) {
+                break;
+            }
+            Move move = parseMove(manager, san);
+            if (move == null) {
+                System.err.println("Illegal move in game " + gameCnt + " : " + san);
+                break;
+            }
+
+            int[] counts = positions.computeIfAbsent(manager.engine.zobrist.hash, key -> new HashMap<>())
+                    .computeIfAbsent(OpeningBook.encodeMove(move), key -> new int[2]);
+            counts[0]++;
+            counts[1] += manager.whiteToMove ? whiteScore : 2 - whiteScore;
+            manager.playMove(move);
+        }
+    }
+
+    // the moves in san, without move numbers, comments, variations and annotations
+    private static List<String> getMoves(String moveText) {
+        List<String> moves = new ArrayList<>();
+        StringBuilder plain = new StringBuilder();
+        int variationDepth = 0;
+        boolean inComment = false;
+        for (char c : moveText.toCharArray()) {
+            if (inComment) {
+                inComment = c != '}';
+            } else if (c == '{') {
+                inComment = true;
+            } else if (c == '(') {
+                variationDepth++;
+            } else if (c == ')') {
+                variationDepth = Math.max(0, variationDepth - 1);
+            } else if (variationDepth == 0) {
+                plain.append(c);
+            }
+        }
+
+        for (String token : plain.toString().split("\\s+")) {
+            token = token.replaceFirst("^\\d+\\.+", "");
+            if (token.isEmpty() || token.startsWith("$") || token.equals("*") || token.matches("1-0|0-1|1/2-1/2")) {
+                continue;
+            }
+            moves.add(token);
+        }
+        return moves;
+    }
+
+    // the legal move written as the given san, null when there is none
+    static Move parseMove(Manager manager, String san) {
+        san = san.replaceAll("[+#!?]", "");
+        if (san.equals("O-O") || san.equals("0-0")) {
+            return findMove(manager.getLegalMoves(), Move.MOVE_CKS);
+        }
+        if (san.equals("O-O-O") || san.equals("0-0-0")) {
+            return findMove(manager.getLegalMoves(), Move.MOVE_CQS);
+        }
+
+        byte promotion = PieceUtil.TYPE_INVALID;
+        int promotionIndex = san.indexOf('=');
+        if (promotionIndex < 0 && san.length() > 2 && "QRBN".indexOf(san.charAt(san.length() - 1)) >= 0 && Character.isDigit(san.charAt(san.length() - 2))) {
+            promotionIndex = san.length() - 1;
+        }
+        if (promotionIndex >= 0) {
+            promotion = PieceUtil.getPieceType(PieceUtil.getPieceMask(san.charAt(san.length() - 1)));
+            san = san.substring(0, promotionIndex);
+        }
+
+        byte pieceType = PieceUtil.TYPE_PAWN;
+        if (!san.isEmpty() && "KQRBN".indexOf(san.charAt(0)) >= 0) {
+            pieceType = PieceUtil.getPieceType(PieceUtil.getPieceMask(san.charAt(0)));
+            san = san.substring(1);
+        }
+        san = san.replace("x", "").replace("-", "");
+        if (san.length() < 2) {
+            return null;
+        }
+        byte targetSquare = BoardUtil.getSquare(san.substring(san.length() - 2));
+        // the file and / or rank of the start square when several pieces could go there
+        String origin = san.substring(0, san.length() - 2);
+
+        for (Move move : manager.getLegalMoves()) {
+            String start = BoardUtil.getUCINotation(move.startSquare);
+            if (move.targetSquare == targetSquare && move.moveType != Move.MOVE_CKS && move.moveType != Move.MOVE_CQS
+                    && PieceUtil.getPieceType(manager.board[move.startSquare]) == pieceType
+                    && PieceUtil.getPromotionPiece(move.moveType) == promotion
+                    && origin.chars().allMatch(c -> start.indexOf(c) >= 0)) {
+                return move;
+            }
+        }
+        return null;
+    }
+
+    private static Move findMove(ArrayList<Move> legalMoves, byte moveType) {
+        for (Move move : legalMoves) {
+            if (move.moveType == moveType) {
+                return move;
+            }
+        }
+        return null;
+    }
+
+    // writes the book sorted by key and the best moves first, returns the number of records
+    public int write(Path bookFile) throws IOException {
+        List<long[]> records = new ArrayList<>();
+        int maxScore = 1;
+        for (var position : positions.entrySet()) {
+            for (var bookMove : position.getValue().entrySet()) {
+                int[] counts = bookMove.getValue();
+                if (counts[0] >= minGames && counts[1] > 0) {
+                    records.add(new long[] {position.getKey(), bookMove.getKey(), counts[1]});
+                    maxScore = Math.max(maxScore, counts[1]);
+                }
+            }
+        }
+        records.sort((record1, record2) -> record1[0] != record2[0] ? Long.compareUnsigned(record1[0], record2[0]) : Long.compare(record2[2], record1[2]));
+
+        // weights only have 16 bits, the most played lines are scaled down to fit
+        int divisor = (maxScore + MAX_WEIGHT - 1) / MAX_WEIGHT;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bookFile)))) {
+            for (long[] record : records) {
+                output.writeLong(record[0]);
+                output.writeShort((int)record[1]);
+                output.writeShort((int)Math.max(1, record[2] / divisor));
+                output.writeInt(0);
+            }
+        }
+        return records.size();
+    }
+
+    public int getGameCnt() {
+        return gameCnt;
+    }
+
+    public int getSkippedGameCnt() {
+        return skippedGameCnt;
+    }
+}
@@ -0,0 +1,38 @@
+package game.v4;
+
+public class PawnTable {
+    public static final int DEFAULT_SIZE = 1 << 14;
+
+    // per side scores for a pawn structure, indexed by the player's eval index
+    public final long[] keys;
+    public final int[][] passedScores;
+    public final int[][] structureScores;
+    public final long[][] passedPawns;
+    private final int mask;
+
+    public long probes;
+    public long hits;
+
+    public PawnTable(int size) {
+        // size is expected to be power of 2
+        keys = new long[size];
+        passedScores = new int[2][size];
+        structureScores = new int[2][size];
+        passedPawns = new long[2][size];
+        mask = size - 1;
+        // key 0 is the position without pawns, whose scores are all 0 already
+    }
+
+    public int getIndex(long pawnHash) {
+        return (int)(pawnHash & mask);
+    }
+
+    public boolean contains(int index, long pawnHash) {
+        probes++;
+        if (keys[index] == pawnHash) {
+            hits++;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,127 @@
+package game.v4;
+
+import util.BoardUtil;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class Perft {
+    public static final int DEFAULT_HASH_MB = 64;
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // positions with at least this many plies left are split into one task per move
+    private static final int SPLIT_DEPTH = 5;
+
+    private final ForkJoinPool pool;
+    private final PerftTable table;
+    // one position per worker thread, set up again for every task it runs. the tasks only carry a board
+    private final ThreadLocal<Manager> workers;
+
+    public Perft(int threads, int hashSizeMb) {
+        pool = new ForkJoinPool(threads);
+        table = hashSizeMb > 0 ? new PerftTable(hashSizeMb) : null;
+        // perft never searches, the workers share the smallest table
+        TranspositionTable workerTable = new TranspositionTable(1);
+        workers = ThreadLocal.withInitial(() -> new Manager(START_FEN, workerTable));
+    }
+
+    public long run(Manager manager, int depth) {
+        return pool.invoke(new PerftTask(this, manager, depth));
+    }
+
+    // node count below every root move, in the order of the legal move list
+    public LinkedHashMap<String, Long> divide(Manager manager, int depth) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int moveCnt = manager.engine.getMoveGenerator().getLegalMoves(moves, false);
+
+        List<PerftTask> tasks = new ArrayList<>();
+        for (int i = 0; i < moveCnt; i++) {
+            tasks.add(getChildTask(this, manager, moves[i], depth - 1));
+        }
+        for (PerftTask task : tasks) {
+            pool.execute(task);
+        }
+
+        LinkedHashMap<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < moveCnt; i++) {
+            result.put(BoardUtil.getUCINotation(new Move(moves[i])), tasks.get(i).join());
+        }
+        return result;
+    }
+
+    // same layout as "go perft" in stockfish, so the two outputs can be diffed directly
+    public void printDivide(Manager manager, int depth) {
+        long total = 0;
+        for (var entry : divide(manager, depth).entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+            total += entry.getValue();
+        }
+        System.out.println();
+        System.out.println("Nodes searched: " + total);
+    }
+
+    public long getHashHits() {
+        return table != null ? table.hits.sum() : 0;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static PerftTask getChildTask(Perft perft, Manager manager, int move, int depth) {
+        manager.engine.makeMove(move);
+        PerftTask child = new PerftTask(perft, manager, depth);
+        manager.engine.unMakeMove(move);
+        return child;
+    }
+
+    // a copy of the board and the state a move generator needs, the position is rebuilt on the worker that runs it
+    private static class PerftTask extends RecursiveTask<Long> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient Perft perft;
+        private final byte[] board;
+        private final boolean whiteToMove;
+        private final byte castleRights;
+        private final byte epSquare;
+        private final byte halfMoveClock;
+        private final int depth;
+
+        PerftTask(Perft perft, Manager manager, int depth) {
+            this.perft = perft;
+            board = manager.board.clone();
+            whiteToMove = manager.whiteToMove;
+            castleRights = manager.castleRights;
+            epSquare = manager.epSquare;
+            halfMoveClock = manager.halfMoveClock;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            Manager manager = perft.workers.get();
+            manager.setPosition(board, whiteToMove, castleRights, epSquare, halfMoveClock);
+            if (depth < SPLIT_DEPTH) {
+                return manager.engine.perft(depth, perft.table);
+            }
+
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            int moveCnt = manager.engine.getMoveGenerator().getLegalMoves(moves, false);
+            List<PerftTask> tasks = new ArrayList<>(moveCnt);
+            for (int i = 0; i < moveCnt; i++) {
+                tasks.add(getChildTask(perft, manager, moves[i], depth - 1));
+            }
+
+            long nodes = 0;
+            for (PerftTask task : invokeAll(tasks)) {
+                nodes += task.join();
+            }
+            return nodes;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package game.v4;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class PerftTable {
+    // each entry is (key ^ data, data) with data = node count << 8 | depth, shared by all perft threads without locks
+    private static final int ENTRY_LONGS = 2;
+    private static final long DEPTH_MIX = 0x9E3779B97F4A7C15L;
+
+    private final long[] entries;
+    private final long entryCnt;
+    public final LongAdder hits = new LongAdder();
+
+    public PerftTable(int sizeInMb) {
+        entryCnt = ((long)sizeInMb << 20) / (ENTRY_LONGS * Long.BYTES);
+        entries = new long[Math.toIntExact(entryCnt * ENTRY_LONGS)];
+    }
+
+    public long getNodeCount(long hash, int depth) {
+        long key = hash + depth * DEPTH_MIX;
+        int index = getIndex(key);
+        long data = entries[index + 1];
+        if (data != 0 && (entries[index] ^ data) == key && (data & 0xFF) == depth) {
+            hits.increment();
+            return data >>> 8;
+        }
+        return -1;
+    }
+
+    public void putNodeCount(long hash, int depth, long nodes) {
+        long key = hash + depth * DEPTH_MIX;
+        int index = getIndex(key);
+        long data = (nodes << 8) | depth;
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    // the low 32 bits scaled onto the entries, as in TranspositionTable
+    private int getIndex(long key) {
+        return (int)(((key & 0xFFFFFFFFL) * entryCnt >>> 32) * ENTRY_LONGS);
+    }
+}
@@ -8,19 +8,44 @@ public class Pieces {
     public byte[] localBoard;
     public long bitBoard;
 
-    public Pieces(int count) {
+    // running evaluation terms, kept up to date as pieces are added, removed and moved
+    public final int pieceValue;
+    public int squareValue;
+    public int endSquareValue;
+    private final byte[] squareTable;
+    private final byte[] endSquareTable;
+
+    public Pieces(int count, int pieceValue, byte[] squareTable, byte[] endSquareTable) {
         currentCnt = 0;
         positions = new byte[count];
         localBoard = new byte[64];
+        this.pieceValue = pieceValue;
+        this.squareTable = squareTable;
+        this.endSquareTable = endSquareTable;
+    }
+
+    public int getMaterial() {
+        return currentCnt * pieceValue;
+    }
+
+    public void clear() {
+        currentCnt = 0;
+        bitBoard = 0;
+        squareValue = 0;
+        endSquareValue = 0;
     }
 
     public void addPiece(byte square) {
+        squareValue += squareTable[square];
+        endSquareValue += endSquareTable[square];
         bitBoard |= BoardUtil.squareMask[square];
         positions[currentCnt] = square;
         localBoard[square] = currentCnt++;
     }
 
     public void removePiece(byte square) {
+        squareValue -= squareTable[square];
+        endSquareValue -= endSquareTable[square];
         bitBoard ^= BoardUtil.squareMask[square];
         currentCnt--;
         if (currentCnt == 0) {
@@ -35,7 +60,9 @@ public class Pieces {
     }
 
     public void updatePosition(byte startSquare, byte targetSquare) {
-        bitBoard = bitBoard | BoardUtil.squareMask[targetSquare] ^ BoardUtil.squareMask[startSquare];
+        squareValue += squareTable[targetSquare] - squareTable[startSquare];
+        endSquareValue += endSquareTable[targetSquare] - endSquareTable[startSquare];
+        bitBoard ^= BoardUtil.squareMask[startSquare] | BoardUtil.squareMask[targetSquare];
         byte positionIndex = localBoard[startSquare];
         positions[positionIndex] = targetSquare;
         localBoard[targetSquare] = positionIndex;
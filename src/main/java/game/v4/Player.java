@@ -1,5 +1,7 @@
 package game.v4;
 
+import util.BoardUtil;
+import util.EvaluationUtil;
 import util.PieceUtil;
 
 public class Player {
@@ -20,19 +22,42 @@ public class Player {
     public Player(String name, byte color, byte evalIndex) {
         this.name = name;
         kingSquare = -1;
-        queens = new Pieces(10);
-        pawns = new Pieces(8);
-        rooks = new Pieces(10);
-        bishops = new Pieces(10);
-        knights = new Pieces(10);
+        queens = new Pieces(10, PieceUtil.QUEEN_VALUE, EvaluationUtil.QUEEN_TABLE[evalIndex], EvaluationUtil.QUEEN_TABLE[evalIndex]);
+        pawns = new Pieces(8, PieceUtil.PAWN_VALUE, EvaluationUtil.PAWN_TABLE[evalIndex], EvaluationUtil.PAWN_END_TABLE[evalIndex]);
+        rooks = new Pieces(10, PieceUtil.ROOK_VALUE, EvaluationUtil.ROOK_TABLE[evalIndex], EvaluationUtil.ROOK_TABLE[evalIndex]);
+        bishops = new Pieces(10, PieceUtil.BISHOP_VALUE, EvaluationUtil.BISHOP_TABLE[evalIndex], EvaluationUtil.BISHOP_TABLE[evalIndex]);
+        knights = new Pieces(10, PieceUtil.KNIGHT_VALUE, EvaluationUtil.KNIGHT_TABLE[evalIndex], EvaluationUtil.KNIGHT_TABLE[evalIndex]);
         this.color = color;
         this.evalIndex = evalIndex;
     }
 
+    // no pieces and no king, before a new position is set up
+    public void clear() {
+        kingSquare = -1;
+        queens.clear();
+        pawns.clear();
+        rooks.clear();
+        bishops.clear();
+        knights.clear();
+    }
+
     public String getName() {
         return name;
     }
 
+    public int getMaterial() {
+        return queens.getMaterial() + rooks.getMaterial() + bishops.getMaterial() + knights.getMaterial() + pawns.getMaterial();
+    }
+
+    // without any piece besides pawns and the king, zugzwang is likely
+    public boolean hasNonPawnMaterial() {
+        return queens.currentCnt + rooks.currentCnt + bishops.currentCnt + knights.currentCnt > 0;
+    }
+
+    public long getOccupancy() {
+        return queens.bitBoard | pawns.bitBoard | rooks.bitBoard | bishops.bitBoard | knights.bitBoard | BoardUtil.squareMask[kingSquare];
+    }
+
     public Pieces getPieces(char c) {
         Pieces pieces = null;
         if (c == 'p' || c == 'P') pieces = pawns;
@@ -0,0 +1,42 @@
+package game.v4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// one call to Engine.search, the event duration is the total search time
+@Name("chessv3.Search")
+@Label("Search")
+@Category({"ChessV3", "Search"})
+@Description("Search for the best move of a position")
+public class SearchEvent extends jdk.jfr.Event {
+    @Label("Best Move")
+    public String bestMove;
+
+    @Label("Depth")
+    public int depth;
+
+    @Label("Nodes")
+    public long nodes;
+
+    @Label("Threads")
+    public int threads;
+
+    @Label("Stop Reason")
+    public String stopReason;
+
+    @Label("Soft Limit")
+    @Timespan(Timespan.MILLISECONDS)
+    public long softLimit;
+
+    @Label("Hard Limit")
+    @Timespan(Timespan.MILLISECONDS)
+    public long hardLimit;
+
+    @Label("Overshoot")
+    @Description("Time spent past the hard limit")
+    @Timespan(Timespan.MILLISECONDS)
+    public long overshoot;
+}
@@ -0,0 +1,29 @@
+package game.v4;
+
+public class SearchLimits {
+    // times are in milliseconds, 0 means the limit isn't set
+    public int depth;
+    public long nodes;
+    public long moveTime;
+    public long whiteTime;
+    public long blackTime;
+    public long whiteIncrement;
+    public long blackIncrement;
+    public int movesToGo;
+    public boolean infinite;
+
+    public static SearchLimits of(int depth, long moveTime) {
+        SearchLimits limits = new SearchLimits();
+        limits.depth = depth;
+        limits.moveTime = moveTime;
+        return limits;
+    }
+
+    public int getDepth() {
+        return depth > 0 ? Math.min(depth, Engine.MAX_DEPTH) : Engine.MAX_DEPTH;
+    }
+
+    public long getNodes() {
+        return nodes > 0 ? nodes : Long.MAX_VALUE;
+    }
+}
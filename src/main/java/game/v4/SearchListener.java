@@ -0,0 +1,8 @@
+package game.v4;
+
+import java.util.List;
+
+// called by the main search thread after every completed iteration, eval is from the side to move
+public interface SearchListener {
+    void onIteration(int depth, int eval, long nodes, long timeMs, List<Move> principalVariation);
+}
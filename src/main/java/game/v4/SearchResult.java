@@ -0,0 +1,16 @@
+package game.v4;
+
+public class SearchResult {
+    // a negative start square means the game is over, as with Engine.getBestMove
+    public final Move move;
+    public final int eval;
+    public final int depth;
+    public final SearchStats stats;
+
+    public SearchResult(Move move, int eval, int depth, SearchStats stats) {
+        this.move = move;
+        this.eval = eval;
+        this.depth = depth;
+        this.stats = stats;
+    }
+}
@@ -0,0 +1,67 @@
+package game.v4;
+
+// counters of one search, every thread fills its own without synchronization and they are added up at the end
+public class SearchStats {
+    public enum StopReason { DEPTH, SOFT_LIMIT, HARD_LIMIT, NODES, STOP, SINGLE_MOVE, TABLEBASE }
+
+    public StopReason stopReason = StopReason.DEPTH;
+    public long nodes;
+    public long quiescenceNodes;
+    public long ttProbes;
+    public long ttHits;
+    public long ttCutoffs;
+    public long tablebaseHits;
+    public long failHighs;
+    public long firstMoveFailHighs;
+
+    // filled by the main thread only, indexed by depth
+    public final long[] iterationNodes = new long[Engine.MAX_DEPTH + 1];
+    public final long[] iterationTimes = new long[Engine.MAX_DEPTH + 1];
+    public int completedDepth;
+    public long timeMs;
+
+    public long getInteriorNodes() {
+        return nodes - quiescenceNodes;
+    }
+
+    public double getTtHitRate() {
+        return ttProbes > 0 ? (double)ttHits / ttProbes : 0;
+    }
+
+    // how often the first move searched is the one that fails high, a measure of move ordering
+    public double getFirstMoveFailHighRate() {
+        return failHighs > 0 ? (double)firstMoveFailHighs / failHighs : 0;
+    }
+
+    // nodes of an iteration over the nodes of the one before
+    public double getBranchingFactor(int depth) {
+        return depth > 1 && depth <= completedDepth && iterationNodes[depth - 1] > 0 ? (double)iterationNodes[depth] / iterationNodes[depth - 1] : 0;
+    }
+
+    public long getNodesPerSecond() {
+        return nodes * 1000 / Math.max(1, timeMs);
+    }
+
+    public void add(SearchStats other) {
+        nodes += other.nodes;
+        quiescenceNodes += other.quiescenceNodes;
+        ttProbes += other.ttProbes;
+        ttHits += other.ttHits;
+        ttCutoffs += other.ttCutoffs;
+        tablebaseHits += other.tablebaseHits;
+        failHighs += other.failHighs;
+        firstMoveFailHighs += other.firstMoveFailHighs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("nodes %d (interior %d, quiescence %d), %d ms, %d nps, stopped by %s%n", nodes, getInteriorNodes(), quiescenceNodes, timeMs, getNodesPerSecond(), stopReason));
+        sb.append(String.format("tt probes %d, hits %d (%.1f%%), cutoffs %d, tablebase hits %d%n", ttProbes, ttHits, getTtHitRate() * 100, ttCutoffs, tablebaseHits));
+        sb.append(String.format("fail highs %d, on first move %.1f%%%n", failHighs, getFirstMoveFailHighRate() * 100));
+        for (int depth = 1; depth <= completedDepth; depth++) {
+            sb.append(String.format("depth %2d : %12d nodes %8d ms  ebf %.2f%n", depth, iterationNodes[depth], iterationTimes[depth], getBranchingFactor(depth)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package game.v4;
+
+import util.AttackUtil;
+import util.BoardUtil;
+import util.PieceUtil;
+
+// static exchange evaluation : the material outcome of a capture when both sides keep recapturing on the target square
+// with their least valuable attacker, sliders behind other attackers join in once the piece in front has captured
+public class StaticExchange {
+    // higher than everything else, a king only recaptures when nothing can take it back
+    private static final int KING_VALUE = 20000;
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    // squares from which a pawn of the color attacks the square, white first
+    private static final long[][] PAWN_ATTACKERS = new long[2][64];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            for (byte target : BoardUtil.KNIGHT_MOVES[square]) KNIGHT_ATTACKS[square] |= BoardUtil.squareMask[target];
+            for (byte target : BoardUtil.KING_MOVES[square]) KING_ATTACKS[square] |= BoardUtil.squareMask[target];
+
+            byte file = BoardUtil.getFile((byte)square);
+            if (file > 0 && square >= 9) PAWN_ATTACKERS[0][square] |= BoardUtil.squareMask[square - 9];
+            if (file < 7 && square >= 7) PAWN_ATTACKERS[0][square] |= BoardUtil.squareMask[square - 7];
+            if (file > 0 && square < 57) PAWN_ATTACKERS[1][square] |= BoardUtil.squareMask[square + 7];
+            if (file < 7 && square < 55) PAWN_ATTACKERS[1][square] |= BoardUtil.squareMask[square + 9];
+        }
+    }
+
+    private final Manager manager;
+    private final int[] gains;
+
+    public StaticExchange(Manager manager) {
+        this.manager = manager;
+        gains = new int[32];
+    }
+
+    // material won by the side to move with the move, from its point of view
+    public int evaluate(int move) {
+        byte startSquare = Move.getStartSquare(move);
+        byte targetSquare = Move.getTargetSquare(move);
+        byte moveType = Move.getMoveType(move);
+        if (moveType == Move.MOVE_CKS || moveType == Move.MOVE_CQS) {
+            return 0;
+        }
+
+        Player white = manager.white;
+        Player black = manager.black;
+        long occupancy = white.getOccupancy() | black.getOccupancy();
+        long whiteOccupancy = white.getOccupancy();
+
+        int attackerValue = getValue(manager.board[startSquare]);
+        int gain;
+        if (moveType == Move.MOVE_EP) {
+            gain = PieceUtil.PAWN_VALUE;
+            occupancy ^= BoardUtil.squareMask[targetSquare + (manager.whiteToMove ? -8 : 8)];
+        } else {
+            gain = getValue(manager.board[targetSquare]);
+        }
+        if (Move.isPromotionMove(moveType)) {
+            attackerValue = PieceUtil.getPieceValue(PieceUtil.getPromotionPiece(moveType));
+            gain += attackerValue - PieceUtil.PAWN_VALUE;
+        }
+
+        gains[0] = gain;
+        occupancy ^= BoardUtil.squareMask[startSquare];
+        long straightSliders = white.rooks.bitBoard | white.queens.bitBoard | black.rooks.bitBoard | black.queens.bitBoard;
+        long diagonalSliders = white.bishops.bitBoard | white.queens.bitBoard | black.bishops.bitBoard | black.queens.bitBoard;
+        long attackers = getAttackers(targetSquare, occupancy, straightSliders, diagonalSliders) & occupancy;
+
+        boolean whiteCaptures = !manager.whiteToMove;
+        int depth = 0;
+        while (depth < gains.length - 1) {
+            long sideAttackers = attackers & (whiteCaptures ? whiteOccupancy : ~whiteOccupancy);
+            if (sideAttackers == 0) {
+                break;
+            }
+
+            Player side = whiteCaptures ? white : black;
+            long attacker = getLeastValuable(side, sideAttackers);
+            int value = getValue(manager.board[Long.numberOfTrailingZeros(attacker)]);
+            // the king can't capture into a square the other side still attacks
+            if (value == KING_VALUE && (attackers & ~sideAttackers) != 0) {
+                break;
+            }
+
+            depth++;
+            gains[depth] = attackerValue - gains[depth - 1];
+
+            occupancy ^= attacker;
+            // the pieces lined up behind the one that captured
+            if ((attacker & (side.pawns.bitBoard | side.bishops.bitBoard | side.queens.bitBoard)) != 0) {
+                attackers |= AttackUtil.getBishopAttacks(targetSquare, occupancy) & diagonalSliders;
+            }
+            if ((attacker & (side.rooks.bitBoard | side.queens.bitBoard)) != 0) {
+                attackers |= AttackUtil.getRookAttacks(targetSquare, occupancy) & straightSliders;
+            }
+            attackers &= occupancy;
+            attackerValue = value;
+            whiteCaptures = !whiteCaptures;
+        }
+
+        // every side may stop capturing when that's better for it
+        while (depth > 0) {
+            gains[depth - 1] = -Math.max(-gains[depth - 1], gains[depth]);
+            depth--;
+        }
+        return gains[0];
+    }
+
+    private long getAttackers(byte square, long occupancy, long straightSliders, long diagonalSliders) {
+        Player white = manager.white;
+        Player black = manager.black;
+        return (AttackUtil.getRookAttacks(square, occupancy) & straightSliders)
+                | (AttackUtil.getBishopAttacks(square, occupancy) & diagonalSliders)
+                | (KNIGHT_ATTACKS[square] & (white.knights.bitBoard | black.knights.bitBoard))
+                | (KING_ATTACKS[square] & (BoardUtil.squareMask[white.kingSquare] | BoardUtil.squareMask[black.kingSquare]))
+                | (PAWN_ATTACKERS[0][square] & white.pawns.bitBoard)
+                | (PAWN_ATTACKERS[1][square] & black.pawns.bitBoard);
+    }
+
+    private static long getLeastValuable(Player side, long attackers) {
+        long pieces;
+        if ((pieces = attackers & side.pawns.bitBoard) != 0) return Long.lowestOneBit(pieces);
+        if ((pieces = attackers & side.knights.bitBoard) != 0) return Long.lowestOneBit(pieces);
+        if ((pieces = attackers & side.bishops.bitBoard) != 0) return Long.lowestOneBit(pieces);
+        if ((pieces = attackers & side.rooks.bitBoard) != 0) return Long.lowestOneBit(pieces);
+        if ((pieces = attackers & side.queens.bitBoard) != 0) return Long.lowestOneBit(pieces);
+        return Long.lowestOneBit(attackers);
+    }
+
+    private static int getValue(byte piece) {
+        return PieceUtil.getPieceType(piece) == PieceUtil.TYPE_KING ? KING_VALUE : PieceUtil.getPieceValue(piece);
+    }
+}
@@ -0,0 +1,17 @@
+package game.v4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// resize or clear of the transposition table, the event duration is the time it took
+@Name("chessv3.TranspositionTable")
+@Label("Transposition Table")
+@Category({"ChessV3", "Transposition Table"})
+public class TableEvent extends jdk.jfr.Event {
+    @Label("Action")
+    public String action;
+
+    @Label("Size (MB)")
+    public int sizeInMb;
+}
@@ -0,0 +1,265 @@
+package game.v4;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// the syzygy endgame tables found on disk : win / draw / loss (.rtbw) and distance to zeroing (.rtbz) files with up to 7
+// pieces. the files are only looked for here, each one is memory mapped the first time a position probes it, see
+// TablebaseFile. the probes themselves go through a TablebaseProber of the searching thread
+public class Tablebase {
+    public static final String DEFAULT_PATH = "syzygy";
+    public static final int MAX_PIECES = 7;
+    public static final int NOT_FOUND = TranspositionTable.lookUpFailedValue;
+
+    // results from the point of view of the side to move, cursed wins and blessed losses are drawn by the 50 move rule
+    public static final int WDL_LOSS = -2;
+    public static final int WDL_BLESSED_LOSS = -1;
+    public static final int WDL_DRAW = 0;
+    public static final int WDL_CURSED_WIN = 1;
+    public static final int WDL_WIN = 2;
+
+    // syzygy piece codes, the black pieces are the white ones + 8
+    static final int PAWN = 1;
+    static final int KNIGHT = 2;
+    static final int BISHOP = 3;
+    static final int ROOK = 4;
+    static final int QUEEN = 5;
+    static final int KING = 6;
+    private static final String PIECE_CHARS = " PNBRQK";
+
+    // the index maps of the syzygy encoding : squares below the a1-h8 diagonal, the a1-d1-d4 triangle, the two kings
+    // with the first one in the triangle, the pawn squares ordered from the edge files and the lower ranks, and the
+    // binomial coefficients that number the placements of equal pieces
+    static final int[] MAP_B1H1H7 = new int[64];
+    static final int[] MAP_A1D1D4 = new int[64];
+    static final int[][] MAP_KK = new int[10][64];
+    static final int[] MAP_PAWNS = new int[64];
+    static final long[][] BINOMIAL = new long[6][64];
+    static final int[][] LEAD_PAWN_IDX = new int[6][64];
+    static final int[][] LEAD_PAWNS_SIZE = new int[6][4];
+
+    static {
+        int code = 0;
+        for (int square = 0; square < 64; square++) {
+            if (getDiagonalOffset(square) < 0) {
+                MAP_B1H1H7[square] = code++;
+            }
+        }
+
+        // the squares on the diagonal come last
+        code = 0;
+        List<Integer> diagonal = new ArrayList<>();
+        for (int square = 0; square <= 27; square++) {
+            if (getDiagonalOffset(square) < 0 && (square & 7) <= 3) {
+                MAP_A1D1D4[square] = code++;
+            } else if (getDiagonalOffset(square) == 0 && (square & 7) <= 3) {
+                diagonal.add(square);
+            }
+        }
+        for (int square : diagonal) {
+            MAP_A1D1D4[square] = code++;
+        }
+
+        // the 462 legal pairs of kings, the ones with both on the diagonal last. with the first king on the diagonal
+        // the second one is never above it
+        code = 0;
+        List<int[]> bothOnDiagonal = new ArrayList<>();
+        for (int index = 0; index < 10; index++) {
+            for (int square1 = 0; square1 <= 27; square1++) {
+                // b1 is mapped to 0 as well as every square outside the triangle
+                if (MAP_A1D1D4[square1] != index || (index == 0 && square1 != 1)) {
+                    continue;
+                }
+                for (int square2 = 0; square2 < 64; square2++) {
+                    if (Math.abs((square1 >>> 3) - (square2 >>> 3)) <= 1 && Math.abs((square1 & 7) - (square2 & 7)) <= 1) {
+                        continue;
+                    } else if (getDiagonalOffset(square1) == 0 && getDiagonalOffset(square2) > 0) {
+                        continue;
+                    } else if (getDiagonalOffset(square1) == 0 && getDiagonalOffset(square2) == 0) {
+                        bothOnDiagonal.add(new int[] {index, square2});
+                    } else {
+                        MAP_KK[index][square2] = code++;
+                    }
+                }
+            }
+        }
+        for (int[] kings : bothOnDiagonal) {
+            MAP_KK[kings[0]][kings[1]] = code++;
+        }
+
+        BINOMIAL[0][0] = 1;
+        for (int n = 1; n < 64; n++) {
+            for (int k = 0; k < 6 && k <= n; k++) {
+                BINOMIAL[k][n] = (k > 0 ? BINOMIAL[k - 1][n - 1] : 0) + (k < n ? BINOMIAL[k][n - 1] : 0);
+            }
+        }
+
+        // a pawn nearer the edge or on a lower rank leads, the tables are split by the file of the leading pawn
+        int availableSquares = 47;
+        for (int leadPawnCnt = 1; leadPawnCnt <= 5; leadPawnCnt++) {
+            for (int file = 0; file <= 3; file++) {
+                int index = 0;
+                for (int rank = 1; rank <= 6; rank++) {
+                    int square = rank << 3 | file;
+                    if (leadPawnCnt == 1) {
+                        MAP_PAWNS[square] = availableSquares--;
+                        MAP_PAWNS[square ^ 7] = availableSquares--;
+                    }
+                    LEAD_PAWN_IDX[leadPawnCnt][square] = index;
+                    index += (int)BINOMIAL[leadPawnCnt - 1][MAP_PAWNS[square]];
+                }
+                LEAD_PAWNS_SIZE[leadPawnCnt][file] = index;
+            }
+        }
+    }
+
+    // the tables of the current path, replaced as a whole by init
+    private static volatile Registry registry = new Registry(DEFAULT_PATH);
+
+    // looks for the tables in the directories of the path, separated like a class path. returns the number of tables
+    public static int init(String path) {
+        registry = new Registry(path);
+        return registry.tableCnt;
+    }
+
+    // the most pieces of the tables found, 0 without any
+    public static int getMaxPieces() {
+        return registry.maxPieces;
+    }
+
+    static TablebaseFile getWdlTable(long materialKey) {
+        return registry.get(materialKey, false);
+    }
+
+    static TablebaseFile getDtzTable(long materialKey) {
+        return registry.get(materialKey, true);
+    }
+
+    // 4 bits for the count of each piece type of each color, pawns to queens
+    static long getMaterialKey(int color, int piece, int count) {
+        return (long)count << ((color * 5 + piece - 1) * 4);
+    }
+
+    // the rank minus the file, 0 on the a1-h8 diagonal and below 0 under it
+    static int getDiagonalOffset(int square) {
+        return (square >>> 3) - (square & 7);
+    }
+
+    // open addressing on the material keys, the white and the black version of each table
+    private static class Registry {
+        private static final int SIZE = 1 << 13;
+
+        private final long[] keys = new long[SIZE];
+        private final TablebaseFile[] wdlTables = new TablebaseFile[SIZE];
+        private final TablebaseFile[] dtzTables = new TablebaseFile[SIZE];
+        private final List<Path> directories = new ArrayList<>();
+        private int tableCnt;
+        private int maxPieces;
+
+        private Registry(String path) {
+            if (path == null || path.isBlank() || path.equals("<empty>")) {
+                return;
+            }
+            for (String directory : path.split(java.io.File.pathSeparator)) {
+                if (!directory.isBlank() && Files.isDirectory(Path.of(directory.trim()))) {
+                    directories.add(Path.of(directory.trim()));
+                }
+            }
+            if (directories.isEmpty()) {
+                return;
+            }
+
+            // every table up to 7 pieces in the order syzygy names them, the stronger side first
+            for (int p1 = PAWN; p1 < KING; p1++) {
+                add(KING, p1, KING);
+                for (int p2 = PAWN; p2 <= p1; p2++) {
+                    add(KING, p1, p2, KING);
+                    add(KING, p1, KING, p2);
+                    for (int p3 = PAWN; p3 < KING; p3++) {
+                        add(KING, p1, p2, KING, p3);
+                    }
+                    for (int p3 = PAWN; p3 <= p2; p3++) {
+                        add(KING, p1, p2, p3, KING);
+                        for (int p4 = PAWN; p4 <= p3; p4++) {
+                            add(KING, p1, p2, p3, p4, KING);
+                            for (int p5 = PAWN; p5 <= p4; p5++) {
+                                add(KING, p1, p2, p3, p4, p5, KING);
+                            }
+                            for (int p5 = PAWN; p5 < KING; p5++) {
+                                add(KING, p1, p2, p3, p4, KING, p5);
+                            }
+                        }
+                        for (int p4 = PAWN; p4 < KING; p4++) {
+                            add(KING, p1, p2, p3, KING, p4);
+                            for (int p5 = PAWN; p5 <= p4; p5++) {
+                                add(KING, p1, p2, p3, KING, p4, p5);
+                            }
+                        }
+                    }
+                    for (int p3 = PAWN; p3 <= p1; p3++) {
+                        for (int p4 = PAWN; p4 <= (p1 == p3 ? p2 : p3); p4++) {
+                            add(KING, p1, p2, KING, p3, p4);
+                        }
+                    }
+                }
+            }
+        }
+
+        // only the win / draw / loss file has to be there, a missing dtz file fails its probes
+        private void add(int... pieces) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < pieces.length; i++) {
+                if (i > 0 && pieces[i] == KING) {
+                    name.append('v');
+                }
+                name.append(PIECE_CHARS.charAt(pieces[i]));
+            }
+            Path wdlFile = find(name + ".rtbw");
+            if (wdlFile == null) {
+                return;
+            }
+
+            TablebaseFile wdl = new TablebaseFile(name.toString(), wdlFile, false);
+            TablebaseFile dtz = new TablebaseFile(name.toString(), find(name + ".rtbz"), true);
+            put(wdl.key, wdl, dtz);
+            put(wdl.key2, wdl, dtz);
+            tableCnt++;
+            maxPieces = Math.max(maxPieces, pieces.length);
+        }
+
+        private Path find(String fileName) {
+            for (Path directory : directories) {
+                Path file = directory.resolve(fileName);
+                if (Files.isRegularFile(file)) {
+                    return file;
+                }
+            }
+            return null;
+        }
+
+        private void put(long key, TablebaseFile wdl, TablebaseFile dtz) {
+            int index = getIndex(key);
+            while (wdlTables[index] != null && keys[index] != key) {
+                index = (index + 1) & (SIZE - 1);
+            }
+            keys[index] = key;
+            wdlTables[index] = wdl;
+            dtzTables[index] = dtz;
+        }
+
+        private TablebaseFile get(long key, boolean dtz) {
+            for (int index = getIndex(key); wdlTables[index] != null; index = (index + 1) & (SIZE - 1)) {
+                if (keys[index] == key) {
+                    return dtz ? dtzTables[index] : wdlTables[index];
+                }
+            }
+            return null;
+        }
+
+        private static int getIndex(long key) {
+            return (int)((key * 0x9E3779B97F4A7C15L) >>> 51);
+        }
+    }
+}
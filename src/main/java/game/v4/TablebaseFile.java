@@ -0,0 +1,486 @@
+package game.v4;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// one syzygy table file, memory mapped and its header read the first time a position probes it. the values are stored
+// in blocks of huffman codes of symbols that each stand for a pair of smaller symbols, down to the stored values. the
+// reads go straight to the mapping, once set up the table is only read and shared by all threads
+public class TablebaseFile {
+    // flags of a table part
+    private static final int FLAG_STM = 1;
+    private static final int FLAG_MAPPED = 2;
+    private static final int FLAG_WIN_PLIES = 4;
+    private static final int FLAG_LOSS_PLIES = 8;
+    private static final int FLAG_WIDE = 16;
+    private static final int FLAG_SINGLE_VALUE = 128;
+
+    private static final int HEADER_SPLIT = 1;
+    private static final int HEADER_HAS_PAWNS = 2;
+    private static final int[] WDL_MAGIC = {0x71, 0xE8, 0x23, 0x5D};
+    private static final int[] DTZ_MAGIC = {0xD7, 0x66, 0x0C, 0xA5};
+    // the dtz map index of each result : win, loss, cursed win and blessed loss
+    private static final int[] WDL_MAP = {1, 3, 0, 2, 0};
+    private static final int SPARSE_ENTRY_SIZE = 6;
+    private static final int NO_SYMBOL = 0xFFF;
+
+    // files above 1 GB are mapped in parts, each one reaching a little into the next so that no read crosses its end
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final int CHUNK_OVERLAP = 64;
+
+    final String name;
+    final boolean dtz;
+    // the material of the table with the first side of the name as white, and with it as black
+    final long key;
+    final long key2;
+    final int pieceCount;
+    final boolean hasPawns;
+    final boolean hasUniquePieces;
+    // the pawns of the leading color, the one with fewer pawns when both have some, and of the other one
+    final int[] pawnCount = new int[2];
+
+    private final Path path;
+    private volatile boolean ready;
+    private long size;
+    private MappedByteBuffer[] chunks;
+    // [side to move][file of the leading pawn], a single side for dtz and for tables with the same pieces on both sides
+    private PairsData[][] parts;
+    private long dtzMap;
+
+    TablebaseFile(String name, Path path, boolean dtz) {
+        this.name = name;
+        this.path = path;
+        this.dtz = dtz;
+
+        String[] sides = name.split("v");
+        int[][] counts = new int[2][7];
+        for (int side = 0; side < 2; side++) {
+            for (char c : sides[side].toCharArray()) {
+                counts[side]["PNBRQK".indexOf(c) + 1]++;
+            }
+        }
+        long key = 0;
+        long key2 = 0;
+        int pieceCount = 0;
+        boolean hasUniquePieces = false;
+        for (int piece = Tablebase.PAWN; piece <= Tablebase.KING; piece++) {
+            if (piece < Tablebase.KING) {
+                key += Tablebase.getMaterialKey(0, piece, counts[0][piece]) + Tablebase.getMaterialKey(1, piece, counts[1][piece]);
+                key2 += Tablebase.getMaterialKey(1, piece, counts[0][piece]) + Tablebase.getMaterialKey(0, piece, counts[1][piece]);
+                hasUniquePieces |= counts[0][piece] == 1 || counts[1][piece] == 1;
+            }
+            pieceCount += counts[0][piece] + counts[1][piece];
+        }
+        this.key = key;
+        this.key2 = key2;
+        this.pieceCount = pieceCount;
+        this.hasUniquePieces = hasUniquePieces;
+        hasPawns = counts[0][Tablebase.PAWN] + counts[1][Tablebase.PAWN] > 0;
+
+        int leadColor = counts[1][Tablebase.PAWN] == 0 || (counts[0][Tablebase.PAWN] > 0 && counts[1][Tablebase.PAWN] >= counts[0][Tablebase.PAWN]) ? 0 : 1;
+        pawnCount[0] = counts[leadColor][Tablebase.PAWN];
+        pawnCount[1] = counts[1 - leadColor][Tablebase.PAWN];
+    }
+
+    // maps the file the first time, false when it's missing or broken
+    boolean isMapped() {
+        if (!ready) {
+            synchronized (TablebaseFile.class) {
+                if (!ready) {
+                    map();
+                    ready = true;
+                }
+            }
+        }
+        return parts != null;
+    }
+
+    private void map() {
+        if (path == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size % 64 != 16) {
+                System.err.println("Corrupt tablebase file " + path);
+                return;
+            }
+            chunks = new MappedByteBuffer[(int)((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long)i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK_MASK + 1 + CHUNK_OVERLAP));
+                chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't map tablebase file " + path + " : " + e.getMessage());
+            chunks = null;
+            return;
+        }
+
+        int[] magic = dtz ? DTZ_MAGIC : WDL_MAGIC;
+        for (int i = 0; i < magic.length; i++) {
+            if (getByte(i) != magic[i]) {
+                System.err.println("Corrupt tablebase file " + path);
+                chunks = null;
+                return;
+            }
+        }
+        // a file holding other pieces than its name says would be read out of its bounds
+        parts = readHeader(magic.length);
+        if (parts == null) {
+            System.err.println("Corrupt tablebase file " + path);
+            chunks = null;
+        }
+    }
+
+    // the per file parts of the table, their piece orders, the sizes of their huffman codes and where their data starts
+    private PairsData[][] readHeader(long data) {
+        // split and has pawns flags, known from the name. dtz tables only hold one side whatever the split flag says
+        int flags = getByte(data++);
+        if (((flags & HEADER_HAS_PAWNS) != 0) != hasPawns || (!dtz && ((flags & HEADER_SPLIT) != 0) != (key != key2))) {
+            return null;
+        }
+        int sides = !dtz && key != key2 ? 2 : 1;
+        int maxFile = hasPawns ? 3 : 0;
+        boolean pawnsOnBothSides = hasPawns && pawnCount[1] > 0;
+        PairsData[][] parts = new PairsData[dtz ? 1 : 2][hasPawns ? 4 : 1];
+
+        for (int file = 0; file <= maxFile; file++) {
+            for (int side = 0; side < sides; side++) {
+                parts[side][file] = new PairsData();
+            }
+            int order = getByte(data);
+            int pawnOrder = pawnsOnBothSides ? getByte(data + 1) : 0xFF;
+            int[][] orders = {{order & 0xF, pawnOrder & 0xF}, {order >>> 4, pawnOrder >>> 4}};
+            data += pawnsOnBothSides ? 2 : 1;
+
+            for (int k = 0; k < pieceCount; k++, data++) {
+                for (int side = 0; side < sides; side++) {
+                    parts[side][file].pieces[k] = side != 0 ? getByte(data) >>> 4 : getByte(data) & 0xF;
+                }
+            }
+            for (int side = 0; side < sides; side++) {
+                if (!hasMaterial(parts[side][file].pieces)) {
+                    return null;
+                }
+                setGroups(parts[side][file], orders[side], file);
+            }
+        }
+        data += data & 1;
+
+        for (int file = 0; file <= maxFile; file++) {
+            for (int side = 0; side < sides; side++) {
+                data = setSizes(parts[side][file], data);
+            }
+        }
+
+        if (dtz) {
+            dtzMap = data;
+            for (int file = 0; file <= maxFile; file++) {
+                PairsData d = parts[0][file];
+                if ((d.flags & FLAG_MAPPED) == 0) {
+                    continue;
+                }
+                for (int i = 0; i < 4; i++) {
+                    if ((d.flags & FLAG_WIDE) != 0) {
+                        data += data & 1;
+                        d.mapIndex[i] = (int)((data - dtzMap) >> 1) + 1;
+                        data += 2L * getShort(data) + 2;
+                    } else {
+                        d.mapIndex[i] = (int)(data - dtzMap) + 1;
+                        data += getByte(data) + 1;
+                    }
+                }
+            }
+            data += data & 1;
+        }
+
+        for (int file = 0; file <= maxFile; file++) {
+            for (int side = 0; side < sides; side++) {
+                PairsData d = parts[side][file];
+                d.sparseIndex = data;
+                data += d.sparseIndexSize * SPARSE_ENTRY_SIZE;
+            }
+        }
+        for (int file = 0; file <= maxFile; file++) {
+            for (int side = 0; side < sides; side++) {
+                PairsData d = parts[side][file];
+                d.blockLengths = data;
+                data += d.blockLengthSize * 2L;
+            }
+        }
+        for (int file = 0; file <= maxFile; file++) {
+            for (int side = 0; side < sides; side++) {
+                PairsData d = parts[side][file];
+                data = (data + 0x3F) & ~0x3FL;
+                d.data = data;
+                data += d.blockCnt * d.blockSize;
+            }
+        }
+        return data <= size ? parts : null;
+    }
+
+    // whether the pieces of a part are the ones of the name, white for its first side and black for the other
+    private boolean hasMaterial(int[] pieces) {
+        String[] sides = name.split("v");
+        int[] counts = new int[16];
+        for (int side = 0; side < 2; side++) {
+            for (char c : sides[side].toCharArray()) {
+                counts["PNBRQK".indexOf(c) + 1 + side * 8]++;
+            }
+        }
+        for (int k = 0; k < pieceCount; k++) {
+            if (--counts[pieces[k]] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the pieces of a group are placed together, the encoding multiplies the number of placements of every group in
+    // the order the table gives. the leading pieces or pawns come first, then the other side's pawns
+    private void setGroups(PairsData d, int[] order, int file) {
+        int n = 0;
+        int firstLen = hasPawns ? 0 : hasUniquePieces ? 3 : 2;
+        d.groupLen[n] = 1;
+        for (int i = 1; i < pieceCount; i++) {
+            if (--firstLen > 0 || d.pieces[i] == d.pieces[i - 1]) {
+                d.groupLen[n]++;
+            } else {
+                d.groupLen[++n] = 1;
+            }
+        }
+        d.groupLen[++n] = 0;
+
+        boolean pawnsOnBothSides = hasPawns && pawnCount[1] > 0;
+        int next = pawnsOnBothSides ? 2 : 1;
+        int freeSquares = 64 - d.groupLen[0] - (pawnsOnBothSides ? d.groupLen[1] : 0);
+        long index = 1;
+        for (int k = 0; next < n || k == order[0] || k == order[1]; k++) {
+            if (k == order[0]) {
+                d.groupIndex[0] = index;
+                index *= hasPawns ? Tablebase.LEAD_PAWNS_SIZE[d.groupLen[0]][file] : hasUniquePieces ? 31332 : 462;
+            } else if (k == order[1]) {
+                d.groupIndex[1] = index;
+                index *= Tablebase.BINOMIAL[d.groupLen[1]][48 - d.groupLen[0]];
+            } else {
+                d.groupIndex[next] = index;
+                index *= Tablebase.BINOMIAL[d.groupLen[next]][freeSquares];
+                freeSquares -= d.groupLen[next++];
+            }
+        }
+        d.groupIndex[n] = index;
+    }
+
+    // the canonical huffman code : base[len] is the lowest code of the symbol length, padded to 64 bits
+    private long setSizes(PairsData d, long data) {
+        d.flags = getByte(data++);
+        if ((d.flags & FLAG_SINGLE_VALUE) != 0) {
+            d.minSymbolLength = getByte(data++);
+            return data;
+        }
+
+        int groupCnt = 0;
+        while (d.groupLen[groupCnt] != 0) {
+            groupCnt++;
+        }
+        long tableSize = d.groupIndex[groupCnt];
+
+        d.blockSize = 1L << getByte(data++);
+        d.span = 1L << getByte(data++);
+        d.sparseIndexSize = (tableSize + d.span - 1) / d.span;
+        int padding = getByte(data++);
+        d.blockCnt = getInt(data) & 0xFFFFFFFFL;
+        data += 4;
+        d.blockLengthSize = d.blockCnt + padding;
+        d.maxSymbolLength = getByte(data++);
+        d.minSymbolLength = getByte(data++);
+        d.lowestSymbols = data;
+
+        int lengths = d.maxSymbolLength - d.minSymbolLength + 1;
+        d.base = new long[lengths];
+        for (int i = lengths - 2; i >= 0; i--) {
+            d.base[i] = (d.base[i + 1] + getShort(d.lowestSymbols + i * 2L) - getShort(d.lowestSymbols + (i + 1) * 2L)) / 2;
+        }
+        for (int i = 0; i < lengths; i++) {
+            d.base[i] <<= 64 - i - d.minSymbolLength;
+        }
+        data += lengths * 2L;
+
+        int symbolCnt = getShort(data);
+        data += 2;
+        d.tree = data;
+        d.symbolLengths = new int[symbolCnt];
+        boolean[] visited = new boolean[symbolCnt];
+        for (int symbol = 0; symbol < symbolCnt; symbol++) {
+            if (!visited[symbol]) {
+                d.symbolLengths[symbol] = setSymbolLength(d, symbol, visited);
+            }
+        }
+        return data + symbolCnt * 3L + (symbolCnt & 1);
+    }
+
+    // the number of stored values a symbol stands for, minus one
+    private int setSymbolLength(PairsData d, int symbol, boolean[] visited) {
+        visited[symbol] = true;
+        int right = getRight(d, symbol);
+        if (right == NO_SYMBOL) {
+            return 0;
+        }
+        int left = getLeft(d, symbol);
+        if (!visited[left]) {
+            d.symbolLengths[left] = setSymbolLength(d, left, visited);
+        }
+        if (!visited[right]) {
+            d.symbolLengths[right] = setSymbolLength(d, right, visited);
+        }
+        return d.symbolLengths[left] + d.symbolLengths[right] + 1;
+    }
+
+    PairsData getPart(int stm, int file) {
+        return parts[dtz ? 0 : stm][hasPawns ? file : 0];
+    }
+
+    // a dtz table only holds one side to move, unless both sides have the same pieces
+    boolean hasSideToMove(int stm, int file) {
+        return (getPart(stm, file).flags & FLAG_STM) == stm || (key == key2 && !hasPawns);
+    }
+
+    // the stored value at the index : walks the blocks from the nearest sparse index entry to the one holding it, then
+    // decodes the symbols of the block up to the one that covers the index and splits it down to a single value
+    int decompress(PairsData d, long index) {
+        if ((d.flags & FLAG_SINGLE_VALUE) != 0) {
+            return d.minSymbolLength;
+        }
+
+        long k = index / d.span;
+        long block = getInt(d.sparseIndex + k * SPARSE_ENTRY_SIZE) & 0xFFFFFFFFL;
+        int offset = getShort(d.sparseIndex + k * SPARSE_ENTRY_SIZE + 4);
+        offset += (int)(index % d.span - d.span / 2);
+        while (offset < 0) {
+            offset += getShort(d.blockLengths + --block * 2) + 1;
+        }
+        while (offset > getShort(d.blockLengths + block * 2)) {
+            offset -= getShort(d.blockLengths + block++ * 2) + 1;
+        }
+
+        long pointer = d.data + block * d.blockSize;
+        long buffer = getLongBigEndian(pointer);
+        pointer += 8;
+        int bufferSize = 64;
+        int symbol;
+        while (true) {
+            int length = 0;
+            while (Long.compareUnsigned(buffer, d.base[length]) < 0) {
+                length++;
+            }
+            symbol = (int)((buffer - d.base[length]) >>> (64 - length - d.minSymbolLength));
+            symbol += getShort(d.lowestSymbols + length * 2L);
+            if (offset < d.symbolLengths[symbol] + 1) {
+                break;
+            }
+
+            offset -= d.symbolLengths[symbol] + 1;
+            length += d.minSymbolLength;
+            buffer <<= length;
+            bufferSize -= length;
+            if (bufferSize <= 32) {
+                bufferSize += 32;
+                buffer |= (getIntBigEndian(pointer) & 0xFFFFFFFFL) << (64 - bufferSize);
+                pointer += 4;
+            }
+        }
+
+        while (d.symbolLengths[symbol] != 0) {
+            int left = getLeft(d, symbol);
+            if (offset < d.symbolLengths[left] + 1) {
+                symbol = left;
+            } else {
+                offset -= d.symbolLengths[left] + 1;
+                symbol = getRight(d, symbol);
+            }
+        }
+        return getLeft(d, symbol);
+    }
+
+    // the stored value as a result, or for dtz as plies to the next capture or pawn move, plus one
+    int getScore(int file, int value, int wdl) {
+        if (!dtz) {
+            return value - 2;
+        }
+
+        PairsData d = getPart(0, file);
+        if ((d.flags & FLAG_MAPPED) != 0) {
+            int mapIndex = d.mapIndex[WDL_MAP[wdl + 2]] + value;
+            value = (d.flags & FLAG_WIDE) != 0 ? getShort(dtzMap + 2L * mapIndex) : getByte(dtzMap + mapIndex);
+        }
+        // stored as moves unless the flags say plies
+        if ((wdl == Tablebase.WDL_WIN && (d.flags & FLAG_WIN_PLIES) == 0) || (wdl == Tablebase.WDL_LOSS && (d.flags & FLAG_LOSS_PLIES) == 0)
+                || wdl == Tablebase.WDL_CURSED_WIN || wdl == Tablebase.WDL_BLESSED_LOSS) {
+            value *= 2;
+        }
+        return value + 1;
+    }
+
+    // a tree node is 3 bytes, 12 bits for the left symbol and 12 for the right one
+    private int getLeft(PairsData d, int symbol) {
+        long node = d.tree + symbol * 3L;
+        return (getByte(node + 1) & 0xF) << 8 | getByte(node);
+    }
+
+    private int getRight(PairsData d, int symbol) {
+        long node = d.tree + symbol * 3L;
+        return getByte(node + 2) << 4 | getByte(node + 1) >>> 4;
+    }
+
+    private int getByte(long position) {
+        return chunks[(int)(position >>> CHUNK_SHIFT)].get((int)(position & CHUNK_MASK)) & 0xFF;
+    }
+
+    private int getShort(long position) {
+        return chunks[(int)(position >>> CHUNK_SHIFT)].getShort((int)(position & CHUNK_MASK)) & 0xFFFF;
+    }
+
+    private int getInt(long position) {
+        return chunks[(int)(position >>> CHUNK_SHIFT)].getInt((int)(position & CHUNK_MASK));
+    }
+
+    private int getIntBigEndian(long position) {
+        return Integer.reverseBytes(getInt(position));
+    }
+
+    private long getLongBigEndian(long position) {
+        return Long.reverseBytes(chunks[(int)(position >>> CHUNK_SHIFT)].getLong((int)(position & CHUNK_MASK)));
+    }
+
+    // one part of a table, for a side to move and a file of the leading pawn. the positions are numbered by the pieces
+    // in this order and grouped like this
+    static class PairsData {
+        final int[] pieces = new int[Tablebase.MAX_PIECES];
+        final int[] groupLen = new int[Tablebase.MAX_PIECES + 1];
+        final long[] groupIndex = new long[Tablebase.MAX_PIECES + 1];
+        final int[] mapIndex = new int[4];
+
+        private int flags;
+        private int minSymbolLength;
+        private int maxSymbolLength;
+        private long blockSize;
+        private long blockCnt;
+        private long blockLengthSize;
+        private long span;
+        private long sparseIndexSize;
+        private long[] base;
+        private int[] symbolLengths;
+        // offsets into the file
+        private long lowestSymbols;
+        private long tree;
+        private long sparseIndex;
+        private long blockLengths;
+        private long data;
+    }
+}
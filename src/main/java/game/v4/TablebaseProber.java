@@ -0,0 +1,462 @@
+package game.v4;
+
+import util.PieceUtil;
+
+// probes the syzygy tables for the position of one engine. the tables leave out positions where a capture or a pawn
+// move is best, so the captures are searched first and the tables only asked for what's left. every buffer is set up
+// once, a probe doesn't allocate
+public class TablebaseProber {
+    // a probe makes at most one move per piece it captures, plus the moves of the side the dtz table doesn't hold
+    public static final int MAX_PLIES = 16;
+
+    // ranks of the root moves : a win within the 50 move rule, the shorter the better, a loss the longer the better
+    private static final int MAX_DTZ = 1 << 18;
+
+    private static final int OK = 0;
+    private static final int FAIL = 1;
+    // the dtz table holds the other side to move
+    private static final int CHANGE_STM = 2;
+    // the best move captures or moves a pawn, the dtz table can't be trusted
+    private static final int ZEROING_BEST_MOVE = 3;
+
+    // syzygy piece code of each of our piece types
+    private static final int[] PIECE_CODES = new int[7];
+
+    static {
+        PIECE_CODES[PieceUtil.TYPE_KING] = Tablebase.KING;
+        PIECE_CODES[PieceUtil.TYPE_QUEEN] = Tablebase.QUEEN;
+        PIECE_CODES[PieceUtil.TYPE_PAWN] = Tablebase.PAWN;
+        PIECE_CODES[PieceUtil.TYPE_ROOK] = Tablebase.ROOK;
+        PIECE_CODES[PieceUtil.TYPE_BISHOP] = Tablebase.BISHOP;
+        PIECE_CODES[PieceUtil.TYPE_KNIGHT] = Tablebase.KNIGHT;
+    }
+
+    private final Manager manager;
+    private final Engine engine;
+    private final MoveGenerator generator;
+
+    private final int[] squares = new int[Tablebase.MAX_PIECES];
+    private final int[] pieces = new int[Tablebase.MAX_PIECES];
+    private final int[][] moveBuffers = new int[MAX_PLIES + 1][MoveGenerator.MAX_MOVES];
+    private int ply;
+    private int state;
+
+    private final int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+    private final int[] rootRanks = new int[MoveGenerator.MAX_MOVES];
+    private int rootMoveCnt;
+    private int bestRootIndex;
+
+    public TablebaseProber(Manager manager, Engine engine, MoveGenerator generator) {
+        this.manager = manager;
+        this.engine = engine;
+        this.generator = generator;
+    }
+
+    // whether the tables hold the position : few enough pieces and no castling
+    public boolean canProbe() {
+        long occupancy = manager.white.getOccupancy() | manager.black.getOccupancy();
+        return Long.bitCount(occupancy) <= Tablebase.getMaxPieces() && manager.castleRights == 0;
+    }
+
+    // the result for the side to move, ignoring the 50 move rule since the last capture or pawn move, or NOT_FOUND
+    public int probeWdl() {
+        state = OK;
+        int wdl = search(false);
+        return state == FAIL ? Tablebase.NOT_FOUND : wdl;
+    }
+
+    // the plies to the next capture or pawn move on the way to the result, negative for a loss, 0 for a draw. a win
+    // after a zeroing move counts 1, one turned into a draw by the 50 move rule 101. NOT_FOUND without a table
+    public int probeDtz() {
+        state = OK;
+        int dtz = getDtz();
+        return state == FAIL ? Tablebase.NOT_FOUND : dtz;
+    }
+
+    // ranks every legal root move, false when a table is missing. the best one wins the fastest within the 50 move
+    // rule, or loses the slowest
+    public boolean rankRootMoves() {
+        rootMoveCnt = generator.getLegalMoves(rootMoves, false);
+        bestRootIndex = -1;
+        int halfMoveClock = manager.halfMoveClock;
+        state = OK;
+        for (int i = 0; i < rootMoveCnt; i++) {
+            int move = rootMoves[i];
+            makeMove(move);
+            int dtz;
+            if (manager.halfMoveClock == 0) {
+                dtz = getDtzBeforeZeroing(-search(false));
+            } else if (manager.halfMoveClock >= 100) {
+                dtz = 0;
+            } else {
+                dtz = -getDtz();
+                dtz = dtz > 0 ? dtz + 1 : dtz < 0 ? dtz - 1 : dtz;
+            }
+            // a mate counts one ply
+            if (dtz == 2 && generator.isInCheck() && generator.getLegalMoves(moveBuffers[ply], false) == 0) {
+                dtz = 1;
+            }
+            unMakeMove(move);
+            if (state == FAIL) {
+                rootMoveCnt = 0;
+                return false;
+            }
+
+            rootRanks[i] = dtz > 0 ? (dtz + halfMoveClock <= 99 ? MAX_DTZ - dtz : MAX_DTZ / 2 - (dtz + halfMoveClock))
+                    : dtz < 0 ? (-dtz * 2 + halfMoveClock < 100 ? -MAX_DTZ - dtz : -MAX_DTZ / 2 + (-dtz + halfMoveClock))
+                    : 0;
+            if (bestRootIndex == -1 || rootRanks[bestRootIndex] < rootRanks[i]) {
+                bestRootIndex = i;
+            }
+        }
+        return bestRootIndex != -1;
+    }
+
+    public int getBestRootMove() {
+        return rootMoves[bestRootIndex];
+    }
+
+    public int getBestRootRank() {
+        return rootRanks[bestRootIndex];
+    }
+
+    // a rank below the best one's for a move the tables know a better choice than
+    public int getRootRank(int move) {
+        for (int i = 0; i < rootMoveCnt; i++) {
+            if (Move.isSameMove(rootMoves[i], move)) {
+                return rootRanks[i];
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    // a sure win or loss scores below a found mate, a 50 move draw in sight scores a few centipawns towards its side
+    public int getBestRootScore() {
+        int rank = getBestRootRank();
+        int bound = MAX_DTZ / 2 - 100;
+        return rank >= bound ? Engine.TABLEBASE_WIN_EVAL
+                : rank > 0 ? Math.max(3, rank - (MAX_DTZ / 2 - 200)) * PieceUtil.PAWN_VALUE / 200
+                : rank == 0 ? 0
+                : rank > -bound ? Math.min(-3, rank + (MAX_DTZ / 2 - 200)) * PieceUtil.PAWN_VALUE / 200
+                : -Engine.TABLEBASE_WIN_EVAL;
+    }
+
+    // the captures, and with checkZeroingMoves the pawn moves, searched until the tables hold the positions. a winning
+    // zeroing move leaves the state at ZEROING_BEST_MOVE
+    private int search(boolean checkZeroingMoves) {
+        if (ply == MAX_PLIES) {
+            state = FAIL;
+            return Tablebase.WDL_DRAW;
+        }
+        int[] moves = moveBuffers[ply];
+        int moveCnt = generator.getLegalMoves(moves, false);
+        int zeroingCnt = 0;
+        int bestWdl = Tablebase.WDL_LOSS;
+        for (int i = 0; i < moveCnt; i++) {
+            int move = moves[i];
+            if (!isCapture(move) && (!checkZeroingMoves || !isPawnMove(move))) {
+                continue;
+            }
+            zeroingCnt++;
+
+            makeMove(move);
+            int wdl = -search(false);
+            unMakeMove(move);
+            if (state == FAIL) {
+                return Tablebase.WDL_DRAW;
+            }
+
+            if (bestWdl < wdl) {
+                bestWdl = wdl;
+                if (wdl >= Tablebase.WDL_WIN) {
+                    state = ZEROING_BEST_MOVE;
+                    return wdl;
+                }
+            }
+        }
+
+        // with only zeroing moves the tables may hold a wrong value, like for positions with an en passant square
+        boolean onlyZeroingMoves = zeroingCnt > 0 && zeroingCnt == moveCnt;
+        int wdl;
+        if (onlyZeroingMoves) {
+            wdl = bestWdl;
+        } else {
+            wdl = probeTable(false, Tablebase.WDL_DRAW);
+            if (state == FAIL) {
+                return Tablebase.WDL_DRAW;
+            }
+        }
+
+        // the dtz table stores any value when a zeroing move is best
+        if (bestWdl >= wdl) {
+            state = bestWdl > Tablebase.WDL_DRAW || onlyZeroingMoves ? ZEROING_BEST_MOVE : OK;
+            return bestWdl;
+        }
+        state = OK;
+        return wdl;
+    }
+
+    private int getDtz() {
+        int wdl = search(true);
+        if (state == FAIL || wdl == Tablebase.WDL_DRAW) {
+            return 0;
+        }
+        if (state == ZEROING_BEST_MOVE) {
+            return getDtzBeforeZeroing(wdl);
+        }
+
+        int dtz = probeTable(true, wdl);
+        if (state == FAIL) {
+            return 0;
+        }
+        if (state != CHANGE_STM) {
+            boolean rule50 = wdl == Tablebase.WDL_BLESSED_LOSS || wdl == Tablebase.WDL_CURSED_WIN;
+            return (dtz + (rule50 ? 100 : 0)) * Integer.signum(wdl);
+        }
+
+        // the table only holds the other side to move, the best move is the one with the shortest distance after it
+        if (ply == MAX_PLIES) {
+            state = FAIL;
+            return 0;
+        }
+        int[] moves = moveBuffers[ply];
+        int moveCnt = generator.getLegalMoves(moves, false);
+        int minDtz = 0xFFFF;
+        for (int i = 0; i < moveCnt; i++) {
+            int move = moves[i];
+            boolean zeroing = isCapture(move) || isPawnMove(move);
+            makeMove(move);
+
+            // a zeroing move takes the distance before it, the sign from the position after it
+            state = OK;
+            dtz = zeroing ? -getDtzBeforeZeroing(search(false)) : -getDtz();
+            if (dtz == 1 && generator.isInCheck() && generator.getLegalMoves(moveBuffers[ply], false) == 0) {
+                minDtz = 1;
+            }
+            if (!zeroing) {
+                dtz += Integer.signum(dtz);
+            }
+            if (dtz < minDtz && Integer.signum(dtz) == Integer.signum(wdl)) {
+                minDtz = dtz;
+            }
+
+            unMakeMove(move);
+            if (state == FAIL) {
+                return 0;
+            }
+        }
+        // no legal move : mated
+        return minDtz == 0xFFFF ? -1 : minDtz;
+    }
+
+    private static int getDtzBeforeZeroing(int wdl) {
+        return switch (wdl) {
+            case Tablebase.WDL_WIN -> 1;
+            case Tablebase.WDL_CURSED_WIN -> 101;
+            case Tablebase.WDL_BLESSED_LOSS -> -101;
+            case Tablebase.WDL_LOSS -> -1;
+            default -> 0;
+        };
+    }
+
+    // the value the table stores for the position. the tables have the stronger side as white, and the pieces of the
+    // position are numbered the way the table orders them, flipped and mirrored into the part of the board it holds
+    private int probeTable(boolean dtz, int wdl) {
+        Player white = manager.white;
+        Player black = manager.black;
+        long materialKey = getMaterialKey(white, 0) + getMaterialKey(black, 1);
+        if (materialKey == 0) {
+            return 0;
+        }
+        TablebaseFile table = dtz ? Tablebase.getDtzTable(materialKey) : Tablebase.getWdlTable(materialKey);
+        if (table == null || !table.isMapped()) {
+            state = FAIL;
+            return 0;
+        }
+
+        // a table with the same pieces on both sides only holds white to move
+        int sideToMove = manager.whiteToMove ? 0 : 1;
+        boolean flip = (table.key == table.key2 && sideToMove == 1) || materialKey != table.key;
+        int flipColor = flip ? 8 : 0;
+        int flipSquares = flip ? 56 : 0;
+        int stm = (flip ? 1 : 0) ^ sideToMove;
+
+        // the pawns of the leading color come first, the one nearest the edge and the first rank leads
+        int size = 0;
+        int leadPawnCnt = 0;
+        long leadPawns = 0;
+        int file = 0;
+        if (table.hasPawns) {
+            int leadPiece = table.getPart(0, 0).pieces[0] ^ flipColor;
+            leadPawns = (leadPiece < 8 ? white : black).pawns.bitBoard;
+            for (long pawns = leadPawns; pawns != 0; pawns &= pawns - 1) {
+                squares[size++] = Long.numberOfTrailingZeros(pawns) ^ flipSquares;
+            }
+            leadPawnCnt = size;
+
+            int lead = 0;
+            for (int i = 1; i < leadPawnCnt; i++) {
+                if (Tablebase.MAP_PAWNS[squares[lead]] < Tablebase.MAP_PAWNS[squares[i]]) {
+                    lead = i;
+                }
+            }
+            swap(0, lead);
+            file = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+        }
+
+        if (dtz && !table.hasSideToMove(stm, file)) {
+            state = CHANGE_STM;
+            return 0;
+        }
+
+        long others = (white.getOccupancy() | black.getOccupancy()) ^ leadPawns;
+        for (; others != 0; others &= others - 1) {
+            int square = Long.numberOfTrailingZeros(others);
+            byte piece = manager.board[square];
+            squares[size] = square ^ flipSquares;
+            pieces[size++] = (PIECE_CODES[PieceUtil.getPieceType(piece)] | (PieceUtil.isWhitePiece(piece) ? 0 : 8)) ^ flipColor;
+        }
+
+        TablebaseFile.PairsData part = table.getPart(stm, file);
+        for (int i = leadPawnCnt; i < size - 1; i++) {
+            for (int j = i + 1; j < size; j++) {
+                if (part.pieces[i] == pieces[j]) {
+                    swap(i, j);
+                    break;
+                }
+            }
+        }
+
+        // the leading piece on the files a to d
+        if ((squares[0] & 7) > 3) {
+            for (int i = 0; i < size; i++) {
+                squares[i] ^= 7;
+            }
+        }
+
+        long index;
+        if (table.hasPawns) {
+            index = Tablebase.LEAD_PAWN_IDX[leadPawnCnt][squares[0]];
+            sortByPawnMap(1, leadPawnCnt);
+            for (int i = 1; i < leadPawnCnt; i++) {
+                index += Tablebase.BINOMIAL[i][Tablebase.MAP_PAWNS[squares[i]]];
+            }
+        } else {
+            // without pawns the leading piece also goes to the ranks 1 to 4, then below the a1-h8 diagonal
+            if (squares[0] >>> 3 > 3) {
+                for (int i = 0; i < size; i++) {
+                    squares[i] ^= 56;
+                }
+            }
+            for (int i = 0; i < part.groupLen[0]; i++) {
+                int offset = Tablebase.getDiagonalOffset(squares[i]);
+                if (offset == 0) {
+                    continue;
+                }
+                if (offset > 0) {
+                    for (int j = i; j < size; j++) {
+                        squares[j] = ((squares[j] >>> 3) | (squares[j] << 3)) & 63;
+                    }
+                }
+                break;
+            }
+            index = table.hasUniquePieces ? getUniquePiecesIndex() : Tablebase.MAP_KK[Tablebase.MAP_A1D1D4[squares[0]]][squares[1]];
+        }
+        index *= part.groupIndex[0];
+
+        // the other groups count their placements on the squares the earlier groups left free
+        int groupStart = part.groupLen[0];
+        boolean remainingPawns = table.hasPawns && table.pawnCount[1] > 0;
+        for (int group = 1; part.groupLen[group] != 0; group++) {
+            int groupEnd = groupStart + part.groupLen[group];
+            sortSquares(groupStart, groupEnd);
+            long placements = 0;
+            for (int i = groupStart; i < groupEnd; i++) {
+                int adjust = 0;
+                for (int j = 0; j < groupStart; j++) {
+                    if (squares[j] < squares[i]) {
+                        adjust++;
+                    }
+                }
+                placements += Tablebase.BINOMIAL[i - groupStart + 1][squares[i] - adjust - (remainingPawns ? 8 : 0)];
+            }
+            remainingPawns = false;
+            index += placements * part.groupIndex[group];
+            groupStart = groupEnd;
+        }
+
+        return table.getScore(file, table.decompress(part, index), wdl);
+    }
+
+    // the first three pieces together : below the diagonal, or on it and the next one below, and so on
+    private long getUniquePiecesIndex() {
+        int adjust1 = squares[1] > squares[0] ? 1 : 0;
+        int adjust2 = (squares[2] > squares[0] ? 1 : 0) + (squares[2] > squares[1] ? 1 : 0);
+        if (Tablebase.getDiagonalOffset(squares[0]) != 0) {
+            return ((long)Tablebase.MAP_A1D1D4[squares[0]] * 63 + (squares[1] - adjust1)) * 62 + squares[2] - adjust2;
+        } else if (Tablebase.getDiagonalOffset(squares[1]) != 0) {
+            return (6 * 63 + (squares[0] >>> 3) * 28 + Tablebase.MAP_B1H1H7[squares[1]]) * 62L + squares[2] - adjust2;
+        } else if (Tablebase.getDiagonalOffset(squares[2]) != 0) {
+            return 6 * 63 * 62 + 4 * 28 * 62 + (squares[0] >>> 3) * 7 * 28 + ((squares[1] >>> 3) - adjust1) * 28 + Tablebase.MAP_B1H1H7[squares[2]];
+        }
+        return 6 * 63 * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (squares[0] >>> 3) * 7 * 6 + ((squares[1] >>> 3) - adjust1) * 6 + (squares[2] >>> 3) - adjust2;
+    }
+
+    private static long getMaterialKey(Player player, int color) {
+        return Tablebase.getMaterialKey(color, Tablebase.PAWN, player.pawns.currentCnt)
+                + Tablebase.getMaterialKey(color, Tablebase.KNIGHT, player.knights.currentCnt)
+                + Tablebase.getMaterialKey(color, Tablebase.BISHOP, player.bishops.currentCnt)
+                + Tablebase.getMaterialKey(color, Tablebase.ROOK, player.rooks.currentCnt)
+                + Tablebase.getMaterialKey(color, Tablebase.QUEEN, player.queens.currentCnt);
+    }
+
+    private void swap(int i, int j) {
+        int square = squares[i];
+        squares[i] = squares[j];
+        squares[j] = square;
+        int piece = pieces[i];
+        pieces[i] = pieces[j];
+        pieces[j] = piece;
+    }
+
+    // insertion sorts, the groups hold a few squares at most
+    private void sortSquares(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int square = squares[i];
+            int j = i - 1;
+            for (; j >= from && squares[j] > square; j--) {
+                squares[j + 1] = squares[j];
+            }
+            squares[j + 1] = square;
+        }
+    }
+
+    private void sortByPawnMap(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int square = squares[i];
+            int j = i - 1;
+            for (; j >= from && Tablebase.MAP_PAWNS[squares[j]] > Tablebase.MAP_PAWNS[square]; j--) {
+                squares[j + 1] = squares[j];
+            }
+            squares[j + 1] = square;
+        }
+    }
+
+    private boolean isCapture(int move) {
+        return manager.board[Move.getTargetSquare(move)] != PieceUtil.TYPE_NONE || Move.getMoveType(move) == Move.MOVE_EP;
+    }
+
+    private boolean isPawnMove(int move) {
+        return PieceUtil.getPieceType(manager.board[Move.getStartSquare(move)]) == PieceUtil.TYPE_PAWN;
+    }
+
+    private void makeMove(int move) {
+        engine.makeMove(move);
+        ply++;
+    }
+
+    private void unMakeMove(int move) {
+        ply--;
+        engine.unMakeMove(move);
+    }
+}
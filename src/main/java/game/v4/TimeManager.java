@@ -0,0 +1,69 @@
+package game.v4;
+
+public class TimeManager {
+    // far enough away to never run out but safe to add to the current time
+    public static final long NO_TIME_LIMIT = Long.MAX_VALUE / 2;
+
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+    private static final int MAX_MOVES_TO_GO = 50;
+    // even the last move before the time control leaves some of the clock, the time is only checked every few nodes
+    private static final int MIN_MOVES_TO_GO = 2;
+    // kept back from the clock for the gui and the jvm, so a slow move never flags
+    private static final long MOVE_OVERHEAD = 50;
+    private static final int HARD_LIMIT_FACTOR = 4;
+    // an iteration usually takes a few times longer than the one before
+    private static final int BRANCHING_ESTIMATE = 2;
+
+    private long startTime;
+    // no new iteration is started past the soft limit, the search is stopped at the hard limit
+    private long softLimit;
+    private long hardLimit;
+
+    public void start(SearchLimits limits, boolean whiteToMove) {
+        startTime = System.currentTimeMillis();
+
+        long time = whiteToMove ? limits.whiteTime : limits.blackTime;
+        long increment = whiteToMove ? limits.whiteIncrement : limits.blackIncrement;
+        if (limits.infinite) {
+            softLimit = hardLimit = NO_TIME_LIMIT;
+        } else if (limits.moveTime > 0) {
+            softLimit = hardLimit = limits.moveTime;
+        } else if (time > 0) {
+            long available = Math.max(1, time - MOVE_OVERHEAD);
+            int movesToGo = limits.movesToGo > 0 ? Math.clamp(limits.movesToGo, MIN_MOVES_TO_GO, MAX_MOVES_TO_GO) : DEFAULT_MOVES_TO_GO;
+            // a large increment can't buy more than this part of the clock either
+            long maxTime = Math.max(1, available * 3 / 4);
+
+            softLimit = Math.min(maxTime, available / movesToGo + increment * 3 / 4);
+            hardLimit = Math.min(maxTime, softLimit * HARD_LIMIT_FACTOR);
+        } else {
+            softLimit = hardLimit = NO_TIME_LIMIT;
+        }
+    }
+
+    public long getElapsed() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public long getSoftLimit() {
+        return softLimit;
+    }
+
+    public long getHardLimit() {
+        return hardLimit;
+    }
+
+    public long getDeadline() {
+        return startTime + hardLimit;
+    }
+
+    public boolean isTimeLimited() {
+        return hardLimit < NO_TIME_LIMIT;
+    }
+
+    // an iteration that can't finish before the hard limit would be thrown away, better keep the time for later moves
+    public boolean shouldStartIteration(long lastIterationTime) {
+        long elapsed = getElapsed();
+        return elapsed < softLimit && elapsed + lastIterationTime * BRANCHING_ESTIMATE < hardLimit;
+    }
+}
@@ -1,39 +1,179 @@
 package game.v4;
 
+import jdk.jfr.FlightRecorder;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
 public class TranspositionTable {
-    public Entry[] lookupEntries;
-    private final int size;
-    private int lookUpIndex;
+    public static final int DEFAULT_SIZE_MB = 16;
+    // the largest table whose longs still fit in one array
+    public static final int MAX_SIZE_MB = 8 * 1024;
     public static final int lookUpFailedValue = (int)1e9;
 
-    public TranspositionTable(int size) {
-        lookupEntries = new Entry[size];
-        this.size = size; // size is expected to be power of 2
+    // each entry is (hash ^ data, data) so a torn write from another thread fails the key check
+    // a bucket holds 4 entries, the first 3 keep the deepest results and the last one is always replaced
+    private static final int ENTRY_LONGS = 2;
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_LONGS = ENTRY_LONGS * BUCKET_ENTRIES;
+    private static final int ENTRY_BYTES = ENTRY_LONGS * Long.BYTES;
+    private static final int PARALLEL_CLEAR_MB = 64;
+    // an entry left from an older search counts as this much shallower for every search since
+    private static final int AGE_DEPTH_PENALTY = 8;
+    // mate scores are stored as the distance from the entry's position instead of the root, every score beyond this is one
+    private static final int MATE_THRESHOLD = Engine.CHECKMATE_EVAL - 2 * Engine.MAX_PLY;
+
+    private long[] entries;
+    private long bucketCnt;
+    private int sizeInMb;
+    // the entries are kept from one search to the next, the ones of older searches are replaced first
+    private int generation;
+
+    public TranspositionTable(int sizeInMb) {
+        resize(sizeInMb);
+    }
+
+    public void resize(int sizeInMb) {
+        if (sizeInMb < 1 || sizeInMb > MAX_SIZE_MB) {
+            throw new IllegalArgumentException("Transposition table size must be between 1 and " + MAX_SIZE_MB + " MB : " + sizeInMb);
+        }
+
+        TableEvent event = beginEvent();
+        this.sizeInMb = sizeInMb;
+        bucketCnt = ((long)sizeInMb << 20) / (ENTRY_BYTES * BUCKET_ENTRIES);
+        entries = null; // let the old table go before allocating the new one
+        entries = new long[Math.toIntExact(bucketCnt * BUCKET_LONGS)];
+        commitEvent(event, "resize");
+    }
+
+    public int getSizeInMb() {
+        return sizeInMb;
+    }
+
+    // at the start of every search, the entries of the previous ones stay valid but are replaced first
+    public void newSearch() {
+        generation = (generation + 1) & Entry.GENERATION_MASK;
     }
 
     public void clear() {
-        lookupEntries = new Entry[size];
+        TableEvent event = beginEvent();
+        generation = 0;
+        if (sizeInMb < PARALLEL_CLEAR_MB) {
+            Arrays.fill(entries, 0);
+        } else {
+            int threads = Runtime.getRuntime().availableProcessors();
+            long chunk = (bucketCnt + threads - 1) / threads;
+            IntStream.range(0, threads).parallel().forEach(thread -> {
+                long start = Math.min(bucketCnt, chunk * thread) * BUCKET_LONGS;
+                long end = Math.min(bucketCnt, chunk * (thread + 1)) * BUCKET_LONGS;
+                Arrays.fill(entries, (int)start, (int)end, 0);
+            });
+        }
+        commitEvent(event, "clear");
+    }
+
+    // the first event class costs the jvm a few hundred milliseconds to set up flight recording, a process that isn't
+    // recording never loads one
+    private static TableEvent beginEvent() {
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        TableEvent event = new TableEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commitEvent(TableEvent event, String action) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.sizeInMb = sizeInMb;
+            event.commit();
+        }
+    }
+
+    public void putEntry(long hash, byte type, int depth, int eval, int move, int depthFromRoot) {
+        int bucket = getBucketIndex(hash);
+        int slot = -1;
+
+        // same position or an empty slot
+        for (int i = 0; i < BUCKET_ENTRIES && slot == -1; i++) {
+            int index = bucket + i * ENTRY_LONGS;
+            long data = entries[index + 1];
+            if (data == 0 || (entries[index] ^ data) == hash) {
+                slot = index;
+                if (move == Move.NONE && data != 0) {
+                    move = Entry.getMove(data); // keep the old best move for ordering
+                }
+            }
+        }
+
+        // replace the shallowest depth preferred entry, stale ones counting as shallower, otherwise the always replace entry
+        if (slot == -1) {
+            int minDepth = Integer.MAX_VALUE;
+            for (int i = 0; i < BUCKET_ENTRIES - 1; i++) {
+                int index = bucket + i * ENTRY_LONGS;
+                long data = entries[index + 1];
+                int entryDepth = Entry.getDepth(data) - getAge(data) * AGE_DEPTH_PENALTY;
+                if (entryDepth < minDepth) {
+                    minDepth = entryDepth;
+                    slot = index;
+                }
+            }
+            if (depth < minDepth) {
+                slot = bucket + (BUCKET_ENTRIES - 1) * ENTRY_LONGS;
+            }
+        }
+
+        if (Math.abs(eval) >= MATE_THRESHOLD) {
+            eval += eval > 0 ? depthFromRoot : -depthFromRoot;
+        }
+        long data = Entry.pack(type, depth, eval, move, generation);
+        entries[slot] = hash ^ data;
+        entries[slot + 1] = data;
     }
 
-    public void putEntry(long hash, byte type, int depth, int eval, Move move) {
-        lookUpIndex = (int)(hash % size);
-        lookupEntries[lookUpIndex] = new Entry(hash, type, depth, eval, move);
+    // returns the packed entry for the position, 0 if it is not in the table
+    public long probe(long hash) {
+        int bucket = getBucketIndex(hash);
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int index = bucket + i * ENTRY_LONGS;
+            long data = entries[index + 1];
+            if (data != 0 && (entries[index] ^ data) == hash) {
+                // still in use, it shouldn't be the first to go
+                if (Entry.getGeneration(data) != generation) {
+                    data = Entry.setGeneration(data, generation);
+                    entries[index] = hash ^ data;
+                    entries[index + 1] = data;
+                }
+                return data;
+            }
+        }
+        return 0;
     }
 
-    public boolean hasEntry(long hash, int depth) {
-        lookUpIndex = (int)(hash % size);
-        return lookupEntries[lookUpIndex] != null && lookupEntries[lookUpIndex].hash == hash && lookupEntries[lookUpIndex].depth >= depth;
+    // the searches since the entry was last stored or found
+    private int getAge(long entry) {
+        return (generation - Entry.getGeneration(entry)) & Entry.GENERATION_MASK;
     }
 
-    public int getEval(int alpha, int beta) {
-        Entry entry = lookupEntries[lookUpIndex];
-        if (entry.type == Entry.TYPE_EXACT) return entry.value;
-        else if (entry.type == Entry.TYPE_LOWER_BOUND && beta <= entry.value) return entry.value;
-        else if (entry.type == Entry.TYPE_UPPER_BOUND && entry.value <= alpha) return entry.value;
+    public static int getEval(long entry, int alpha, int beta, int depthFromRoot) {
+        byte type = Entry.getType(entry);
+        int value = Entry.getValue(entry);
+        if (Math.abs(value) >= MATE_THRESHOLD) {
+            value -= value > 0 ? depthFromRoot : -depthFromRoot;
+        }
+        if (type == Entry.TYPE_EXACT) return value;
+        else if (type == Entry.TYPE_LOWER_BOUND && beta <= value) return value;
+        else if (type == Entry.TYPE_UPPER_BOUND && value <= alpha) return value;
         else return lookUpFailedValue;
     }
 
-    public Move getMove() {
-        return lookupEntries[lookUpIndex].move;
+    // the low 32 bits of the hash scaled onto the buckets, fast without a division and with any table size
+    private int getBucketIndex(long hash) {
+        return (int)(((hash & 0xFFFFFFFFL) * bucketCnt >>> 32) * BUCKET_LONGS);
     }
 }
@@ -0,0 +1,320 @@
+package game.v4;
+
+import util.BoardUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// UCI front end : reads commands from stdin and answers on stdout, the search runs on its own thread
+public class Uci {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private final TranspositionTable table;
+    private Manager manager;
+    private int threads;
+    private boolean ownBook;
+    // read on the first search that may use it, a new file is read again
+    private String bookFile;
+    private OpeningBook book;
+    private boolean bookLoaded;
+
+    // guis resend the whole game with every move, when it extends the current one only the new moves are played
+    private String positionFen;
+    private final List<String> positionMoves;
+
+    private Thread searchThread;
+    private CountDownLatch stopSignal;
+    private boolean infiniteSearch;
+
+    public Uci() {
+        table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
+        threads = 1;
+        ownBook = true;
+        bookFile = OpeningBook.DEFAULT_FILE;
+        positionMoves = new ArrayList<>();
+        setPosition(START_FEN);
+    }
+
+    // every argument is a command handled before stdin is read, each search runs to its end before the next one :
+    // java -jar ChessV3.jar "position startpos" "go depth 8" quit
+    public static void main(String[] args) throws IOException {
+        Uci uci = new Uci();
+        for (String command : args) {
+            if (!uci.handleCommand(command.trim())) {
+                uci.stopSearch();
+                return;
+            }
+            uci.waitForSearch();
+        }
+        uci.run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+
+    public void run(BufferedReader input) throws IOException {
+        String line;
+        while ((line = input.readLine()) != null) {
+            if (!handleCommand(line.trim())) {
+                break;
+            }
+        }
+        stopSearch();
+    }
+
+    // returns false once the gui asks to quit
+    public boolean handleCommand(String line) {
+        String[] tokens = line.split("\\s+");
+        switch (tokens[0]) {
+            case "uci" -> {
+                send("id name ChessV3");
+                send("id author tchalke");
+                send("option name Hash type spin default " + TranspositionTable.DEFAULT_SIZE_MB + " min 1 max " + TranspositionTable.MAX_SIZE_MB);
+                send("option name Threads type spin default 1 min 1 max " + Engine.MAX_THREADS);
+                send("option name OwnBook type check default true");
+                send("option name BookFile type string default " + OpeningBook.DEFAULT_FILE);
+                send("option name SyzygyPath type string default " + Tablebase.DEFAULT_PATH);
+                send("uciok");
+            }
+            case "isready" -> send("readyok");
+            case "ucinewgame" -> {
+                stopSearch();
+                table.clear();
+                setPosition(START_FEN);
+            }
+            case "setoption" -> {
+                stopSearch();
+                setOption(tokens);
+            }
+            case "position" -> {
+                stopSearch();
+                setPosition(tokens);
+            }
+            case "go" -> {
+                stopSearch();
+                go(tokens);
+            }
+            case "stop" -> stopSearch();
+            case "quit" -> {
+                return false;
+            }
+            case "" -> {}
+            default -> send("info string Unknown command : " + line);
+        }
+        return true;
+    }
+
+    private void setOption(String[] tokens) {
+        int nameIndex = indexOf(tokens, "name");
+        int valueIndex = indexOf(tokens, "value");
+        String name = String.join(" ", Arrays.copyOfRange(tokens, Math.min(nameIndex + 1, valueIndex), valueIndex));
+        // the value is the rest of the line, paths may hold spaces
+        String value = String.join(" ", Arrays.copyOfRange(tokens, Math.min(valueIndex + 1, tokens.length), tokens.length));
+
+        try {
+            switch (name.toLowerCase()) {
+                case "hash" -> table.resize(Integer.parseInt(value));
+                case "threads" -> {
+                    manager.setThreads(Integer.parseInt(value));
+                    threads = Integer.parseInt(value);
+                }
+                case "ownbook" -> ownBook = Boolean.parseBoolean(value);
+                case "bookfile" -> {
+                    bookFile = value;
+                    bookLoaded = false;
+                }
+                case "syzygypath" -> send("info string Found " + Tablebase.init(value) + " tablebases");
+                default -> send("info string Unknown option : " + name);
+            }
+        } catch (IllegalArgumentException e) {
+            send("info string Invalid value for " + name + " : " + e.getMessage());
+        }
+    }
+
+    private void setPosition(String[] tokens) {
+        int movesIndex = indexOf(tokens, "moves");
+        String fen;
+        if (tokens.length > 1 && tokens[1].equals("startpos")) {
+            fen = START_FEN;
+        } else if (tokens.length > 2 && tokens[1].equals("fen")) {
+            fen = String.join(" ", Arrays.copyOfRange(tokens, 2, movesIndex));
+        } else {
+            send("info string Invalid position command");
+            return;
+        }
+
+        List<String> moves = Arrays.asList(tokens).subList(Math.min(movesIndex + 1, tokens.length), tokens.length);
+        boolean continuesGame = fen.equals(positionFen) && moves.size() >= positionMoves.size()
+                && moves.subList(0, positionMoves.size()).equals(positionMoves);
+        if (!continuesGame) {
+            setPosition(fen);
+        }
+
+        for (int i = positionMoves.size(); i < moves.size(); i++) {
+            if (!playMove(moves.get(i))) {
+                send("info string Illegal move : " + moves.get(i));
+                break;
+            }
+            positionMoves.add(moves.get(i));
+        }
+    }
+
+    private void setPosition(String fen) {
+        if (manager != null) {
+            manager.setThreads(1); // lets the helper threads of the old position go
+        }
+
+        manager = new Manager(fen, table);
+        if (manager.engine == null) {
+            send("info string Invalid fen : " + fen);
+            fen = START_FEN;
+            manager = new Manager(fen, table);
+        }
+        manager.setThreads(threads);
+        manager.engine.setSearchListener(this::sendInfo);
+        positionFen = fen;
+        positionMoves.clear();
+    }
+
+    private boolean playMove(String notation) {
+        for (Move move : manager.getLegalMoves()) {
+            if (BoardUtil.getUCINotation(move).equals(notation)) {
+                manager.playMove(move);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void go(String[] tokens) {
+        if (tokens.length > 2 && tokens[1].equals("perft")) {
+            manager.divide(Integer.parseInt(tokens[2]), Runtime.getRuntime().availableProcessors());
+            return;
+        }
+
+        SearchLimits limits = new SearchLimits();
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                switch (tokens[i]) {
+                    case "depth" -> limits.depth = Integer.parseInt(tokens[++i]);
+                    case "nodes" -> limits.nodes = Long.parseLong(tokens[++i]);
+                    case "movetime" -> limits.moveTime = Long.parseLong(tokens[++i]);
+                    case "wtime" -> limits.whiteTime = Long.parseLong(tokens[++i]);
+                    case "btime" -> limits.blackTime = Long.parseLong(tokens[++i]);
+                    case "winc" -> limits.whiteIncrement = Long.parseLong(tokens[++i]);
+                    case "binc" -> limits.blackIncrement = Long.parseLong(tokens[++i]);
+                    case "movestogo" -> limits.movesToGo = Integer.parseInt(tokens[++i]);
+                    case "infinite" -> limits.infinite = true;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            send("info string Invalid go command : " + String.join(" ", tokens));
+            return;
+        }
+
+        // the book answers right away, unless the gui wants to watch the search
+        OpeningBook book = ownBook && !limits.infinite ? getBook() : null;
+        Move bookMove = book != null ? book.probe(manager) : null;
+        if (bookMove != null) {
+            send("bestmove " + BoardUtil.getUCINotation(bookMove));
+            return;
+        }
+
+        Engine engine = manager.engine;
+        CountDownLatch stopSignal = new CountDownLatch(1);
+        this.stopSignal = stopSignal;
+        infiniteSearch = limits.infinite;
+        searchThread = new Thread(() -> {
+            Move move = engine.getBestMove(limits);
+            // an infinite search only reports its move once the gui sends stop
+            if (limits.infinite) {
+                try {
+                    stopSignal.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            send("bestmove " + (move.startSquare >= 0 ? BoardUtil.getUCINotation(move) : "0000"));
+        }, "uci-search");
+        searchThread.start();
+    }
+
+    private OpeningBook getBook() {
+        if (!bookLoaded) {
+            book = OpeningBook.load(bookFile);
+            bookLoaded = true;
+        }
+        return book;
+    }
+
+    // an infinite search never ends by itself, it's left running
+    private void waitForSearch() {
+        if (searchThread == null || infiniteSearch) {
+            return;
+        }
+        try {
+            searchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stopSearch() {
+        if (searchThread == null) {
+            return;
+        }
+
+        stopSignal.countDown();
+        // a search that hasn't started yet clears the stop flag, so keep asking until it's done
+        while (searchThread.isAlive()) {
+            manager.engine.stopSearch();
+            try {
+                searchThread.join(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        searchThread = null;
+    }
+
+    private void sendInfo(int depth, int eval, long nodes, long timeMs, List<Move> principalVariation) {
+        StringBuilder info = new StringBuilder("info depth ").append(depth)
+                .append(" score ").append(getScore(eval))
+                .append(" nodes ").append(nodes)
+                .append(" nps ").append(nodes * 1000 / Math.max(1, timeMs))
+                .append(" time ").append(timeMs);
+        if (!principalVariation.isEmpty()) {
+            info.append(" pv");
+            for (Move move : principalVariation) {
+                info.append(' ').append(BoardUtil.getUCINotation(move));
+            }
+        }
+        send(info.toString());
+    }
+
+    private static String getScore(int eval) {
+        int mateDistance = Engine.CHECKMATE_EVAL - Math.abs(eval);
+        if (mateDistance <= Engine.MAX_PLY) {
+            int mateInMoves = (mateDistance + 1) / 2;
+            return "mate " + (eval > 0 ? mateInMoves : -mateInMoves);
+        }
+        return "cp " + eval;
+    }
+
+    private static int indexOf(String[] tokens, String token) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].equals(token)) {
+                return i;
+            }
+        }
+        return tokens.length;
+    }
+
+    private synchronized void send(String line) {
+        System.out.println(line);
+        System.out.flush();
+    }
+}
@@ -3,39 +3,61 @@ package game.v4;
 import util.BoardUtil;
 import util.PieceUtil;
 
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Random;
 
 public class Zobrist {
-    public long hash;
-    private long[] preComputedHash;
-    private final int castleHashStart;
-    private final int epHashStart;
-    private long playerHash;
-    private final int[] startIndexes;
-
-    public Zobrist(byte[] board, byte castleRights, byte epSquare) {
-        castleHashStart = 64 * 12;
-        epHashStart = castleHashStart + 15;
-        setHash();
-
-        startIndexes = new int[12];
+    private static final int WHITE_PAWN = 2;
+    private static final int BLACK_PAWN = 8;
+    private static final int CASTLE_HASH_START = 64 * 12;
+    private static final int EP_HASH_START = CASTLE_HASH_START + 15;
+    private static final int HASH_CNT = EP_HASH_START + 8;
+    // the same keys in every run, opening books are stored with them. a book built with other keys has to be rebuilt
+    private static final long SEED = 31279;
+
+    // the piece keys, 64 per piece type, then the castle rights and the en passant files, shared by every position
+    private static final long[] preComputedHash = new long[HASH_CNT];
+    private static final long playerHash;
+    private static final int[] startIndexes = new int[12];
+
+    static {
+        HashSet<Long> used = new HashSet<>();
+        Random random = new Random(SEED);
+        for (int i = 0; i < HASH_CNT; i++) {
+            preComputedHash[i] = getUnusedNumber(random, used);
+        }
+        playerHash = getUnusedNumber(random, used);
+
         for (int pieceType = 1; pieceType < 12; pieceType++) {
             startIndexes[pieceType] = pieceType * 64;
         }
+    }
 
+    public long hash;
+    public long pawnHash;
+
+    public Zobrist(byte[] board, byte castleRights, byte epSquare, boolean whiteToMove) {
+        reset(board, castleRights, epSquare, whiteToMove);
+    }
+
+    // the keys of a new position, computed from scratch
+    public void reset(byte[] board, byte castleRights, byte epSquare, boolean whiteToMove) {
+        hash = 0;
+        pawnHash = 0;
         for (int square = 0; square < 64; square++) {
             int pieceType = getPieceType(board[square]);
             if (pieceType != -1) {
                 hash ^= preComputedHash[startIndexes[pieceType] + square];
+                if (pieceType == WHITE_PAWN || pieceType == BLACK_PAWN) {
+                    pawnHash ^= preComputedHash[startIndexes[pieceType] + square];
+                }
             }
         }
 
-        updatePlayerHash();
+        // the player key is part of the hash while white is to move, the same as after an even number of moves from the start
+        if (whiteToMove) {
+            updatePlayerHash();
+        }
         if (castleRights != 0) {
             updateCastleHash(castleRights);
         }
@@ -50,16 +72,21 @@ public class Zobrist {
 
     public void updateMoveHash(byte piece, int square1, int square2) {
         int pieceType = getPieceType(piece);
-        hash ^= preComputedHash[startIndexes[pieceType] + square1];
-        if (square2 != -1) hash ^= preComputedHash[startIndexes[pieceType] + square2];
+        long moveHash = preComputedHash[startIndexes[pieceType] + square1];
+        if (square2 != -1) moveHash ^= preComputedHash[startIndexes[pieceType] + square2];
+
+        hash ^= moveHash;
+        if (pieceType == WHITE_PAWN || pieceType == BLACK_PAWN) {
+            pawnHash ^= moveHash;
+        }
     }
 
     public void updateEPHash(byte epSquare) {
-        hash ^= preComputedHash[epHashStart + BoardUtil.getFile(epSquare)];
+        hash ^= preComputedHash[EP_HASH_START + BoardUtil.getFile(epSquare)];
     }
 
     public void updateCastleHash(byte castleMask) {
-        hash ^= preComputedHash[castleHashStart + castleMask - 1];
+        hash ^= preComputedHash[CASTLE_HASH_START + castleMask - 1];
     }
 
     private int getPieceType(byte mask) {
@@ -75,50 +102,13 @@ public class Zobrist {
         return pieceType != -1 ? pieceType + (PieceUtil.isWhitePiece(mask) ? 0 : 6) : -1;
     }
 
-    private void setHash() {
-        String fileName = "preGeneratedNumbers.txt";
-        File file = new File(fileName);
-
-        try {
-            Path path = Paths.get(fileName);
-            if (!file.exists()) {
-                int size = 64 * 12 + 15 + 8;
-                preComputedHash = new long[size];
-
-                HashSet<Long> used = new HashSet<>();
-                Random random = new Random(31279);
-                StringBuilder sb = new StringBuilder();
-
-                for (int i = 0; i < size; i++) {
-                    long number = random.nextLong(0, Long.MAX_VALUE);
-                    while (used.contains(number)) { // unlikely but just to be sure
-                        number = random.nextLong(0, Long.MAX_VALUE);
-                    }
-
-                    used.add(number);
-                    preComputedHash[i] = number;
-                    sb.append(number).append(",");
-                }
-
-                long number = random.nextLong(0, Long.MAX_VALUE);
-                while (used.contains(number)) {
-                    number = random.nextLong(0, Long.MAX_VALUE);
-                }
-                playerHash = number;
-
-                Files.write(path, sb.append(playerHash).toString().getBytes());
-            } else {
-                String preWrittenRandomNumbers = new String(Files.readAllBytes(path));
-                String[] numbers = preWrittenRandomNumbers.split(",");
-                preComputedHash = new long[numbers.length];
-                for (int i = 0; i < numbers.length; i++) {
-                    if (i < numbers.length - 1) preComputedHash[i] = Long.parseLong(numbers[i]);
-                    else playerHash = preComputedHash[i] = Long.parseLong(numbers[i]);
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error generating random number for zobrist hash : " + e.getMessage());
+    private static long getUnusedNumber(Random random, HashSet<Long> used) {
+        // all 64 bits, tables may index with any of them
+        long number = random.nextLong();
+        while (number == 0 || !used.add(number)) { // unlikely but just to be sure
+            number = random.nextLong();
         }
+        return number;
     }
 
 //    public boolean testHash(byte[] board, byte castleRights, byte epSquare) {
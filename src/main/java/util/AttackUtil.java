@@ -0,0 +1,152 @@
+package util;
+
+public class AttackUtil {
+    public static final long[] ROOK_MAGICS = new long[] {
+            0x1180081040008020L, 0x014000D000200048L, 0x0280100020008008L, 0x0080100080080005L,
+            0x0480020400080080L, 0x0A00020081080410L, 0x2600040200084081L, 0x020004012180410EL,
+            0x0000800080400020L, 0x0001002040010090L, 0x801A004200108024L, 0x0822800802801000L,
+            0x0002800800810400L, 0x1000800400020080L, 0x0109000401002200L, 0x1981000100004082L,
+            0x8040018000402080L, 0xA00E020041082380L, 0x40A0048010008020L, 0x0210010008210010L,
+            0x8088818004001802L, 0x2A24008080020004L, 0x0000040001100802L, 0x1000020008411084L,
+            0x4000400180087080L, 0x2540004540201002L, 0x0808408200120021L, 0x0000100080080085L,
+            0x0008010100080410L, 0x0023040080800200L, 0x0C01004100440200L, 0x2800004200210084L,
+            0x3004204014800081L, 0x001001400140200AL, 0x8210200101001040L, 0x4424490025001000L,
+            0x0008000400800880L, 0x2C00800200800400L, 0x8090081004000102L, 0x00080C02820020C5L,
+            0x0000800040008020L, 0x8080820021020040L, 0x0020802200120040L, 0x0202002008420010L,
+            0x0004008040080800L, 0x0000020004008080L, 0x1200504102040048L, 0x4C01000040810002L,
+            0x0580002000400040L, 0x2015802000400C80L, 0x8080461082022200L, 0x0002201005000900L,
+            0xC900080100900500L, 0x0002002400807280L, 0x0004021008410400L, 0x0810010080540200L,
+            0x2000208000110041L, 0x300B024002B0A081L, 0x0000090020004293L, 0x0008200408100101L,
+            0x0122000420081002L, 0x0011000400080201L, 0x018008A110120804L, 0x0900040221124082L
+    };
+    public static final long[] BISHOP_MAGICS = new long[] {
+            0x2002102208004480L, 0x0808012124010C01L, 0x0008025042010045L, 0x2202208601038101L,
+            0x4044050405040100L, 0x0102080208020100L, 0x0006210920100020L, 0x0100808048024000L,
+            0x00800A2084040040L, 0x000AA00101410104L, 0x1108082E240CA100L, 0x0010082080202244L,
+            0x1002084840020000L, 0x000842180404001AL, 0x4043008210022000L, 0x100003040A014468L,
+            0x000500084858082CL, 0x0028040310041080L, 0x8008000400240014L, 0x2094002241020001L,
+            0x0182001012100000L, 0x4002030908010C00L, 0x1129180041082024L, 0x000284204410A820L,
+            0x483044814A200421L, 0x00082000081A2484L, 0x800E0442020C0400L, 0x0008080004220060L,
+            0x2801001001004002L, 0x4401010002100080L, 0x03050120C6441000L, 0x01010100014404A1L,
+            0x8101500810D02004L, 0x2002082003048100L, 0x0402010A41040801L, 0x0022020080180080L,
+            0x00440C0400001100L, 0x0000851302060088L, 0x010810C100308800L, 0x0001240020108210L,
+            0x00AC412050020808L, 0xA000820120041100L, 0x0811094402171000L, 0x0010054022089021L,
+            0x6011240810140201L, 0x0010041004101020L, 0x0020084102468500L, 0x00011C0082000090L,
+            0x1254881490040300L, 0x8084804402600C20L, 0x6002010090904000L, 0x0000021084044040L,
+            0x004000445044020AL, 0x0401100250010028L, 0x0020204411006020L, 0x0862447802104005L,
+            0x628282480090080AL, 0x1000008400880400L, 0x0010000D04210440L, 0x0004300480460800L,
+            0x0884430010021210L, 0x1040006072900240L, 0x0000210204080C80L, 0x0108014102020A00L
+    };
+
+    public static final long[] rookMask = new long[64];
+    public static final long[] bishopMask = new long[64];
+    public static final long[] rookRays = new long[64];
+    public static final long[] bishopRays = new long[64];
+    public static final long[][] betweenMask = new long[64][64];
+    public static final long[][] pinLineMask = new long[64][64];
+
+    private static final int[] rookShift = new int[64];
+    private static final int[] bishopShift = new int[64];
+    private static final int[] rookOffset = new int[64];
+    private static final int[] bishopOffset = new int[64];
+    private static final long[] rookAttacks;
+    private static final long[] bishopAttacks;
+
+    // up, down, left, right, tr, tl, br, bl
+    private static final int[][] directions = new int[][] {{1, 0}, {-1, 0}, {0, -1}, {0, 1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    static {
+        int rookSize = 0, bishopSize = 0;
+        for (int square = 0; square < 64; square++) {
+            rookMask[square] = getRelevantMask(square, 0, 3);
+            bishopMask[square] = getRelevantMask(square, 4, 7);
+            rookShift[square] = 64 - Long.bitCount(rookMask[square]);
+            bishopShift[square] = 64 - Long.bitCount(bishopMask[square]);
+            rookOffset[square] = rookSize;
+            bishopOffset[square] = bishopSize;
+            rookSize += 1 << Long.bitCount(rookMask[square]);
+            bishopSize += 1 << Long.bitCount(bishopMask[square]);
+        }
+
+        rookAttacks = new long[rookSize];
+        bishopAttacks = new long[bishopSize];
+        for (int square = 0; square < 64; square++) {
+            rookRays[square] = getSlidingAttacks(square, 0L, 0, 3);
+            bishopRays[square] = getSlidingAttacks(square, 0L, 4, 7);
+            fillAttackTable(square, rookMask[square], ROOK_MAGICS[square], rookShift[square], rookOffset[square], rookAttacks, 0, 3);
+            fillAttackTable(square, bishopMask[square], BISHOP_MAGICS[square], bishopShift[square], bishopOffset[square], bishopAttacks, 4, 7);
+        }
+
+        for (int from = 0; from < 64; from++) {
+            for (int dir = 0; dir < 8; dir++) {
+                long ray = 0;
+                int rank = from / 8 + directions[dir][0];
+                int file = from % 8 + directions[dir][1];
+                while (rank >= 0 && rank < 8 && file >= 0 && file < 8) {
+                    int to = rank * 8 + file;
+                    betweenMask[from][to] = ray;
+                    ray |= 1L << to;
+                    rank += directions[dir][0];
+                    file += directions[dir][1];
+                }
+
+                // every square of the ray lies on the same line from the king
+                for (long squares = ray; squares != 0; squares &= squares - 1) {
+                    pinLineMask[from][Long.numberOfTrailingZeros(squares)] = ray;
+                }
+            }
+        }
+    }
+
+    public static long getRookAttacks(int square, long occupancy) {
+        return rookAttacks[rookOffset[square] + (int)(((occupancy & rookMask[square]) * ROOK_MAGICS[square]) >>> rookShift[square])];
+    }
+
+    public static long getBishopAttacks(int square, long occupancy) {
+        return bishopAttacks[bishopOffset[square] + (int)(((occupancy & bishopMask[square]) * BISHOP_MAGICS[square]) >>> bishopShift[square])];
+    }
+
+    public static long getQueenAttacks(int square, long occupancy) {
+        return getRookAttacks(square, occupancy) | getBishopAttacks(square, occupancy);
+    }
+
+    private static void fillAttackTable(int square, long mask, long magic, int shift, int offset, long[] table, int dirStart, int dirEnd) {
+        // walk every subset of the relevant mask
+        long occupancy = 0;
+        do {
+            table[offset + (int)((occupancy * magic) >>> shift)] = getSlidingAttacks(square, occupancy, dirStart, dirEnd);
+            occupancy = (occupancy - mask) & mask;
+        } while (occupancy != 0);
+    }
+
+    private static long getRelevantMask(int square, int dirStart, int dirEnd) {
+        // edge squares never block anything behind them, so they are left out of the index
+        long mask = 0;
+        for (int dir = dirStart; dir <= dirEnd; dir++) {
+            int rank = square / 8 + directions[dir][0];
+            int file = square % 8 + directions[dir][1];
+            while (rank + directions[dir][0] >= 0 && rank + directions[dir][0] < 8 && file + directions[dir][1] >= 0 && file + directions[dir][1] < 8) {
+                mask |= 1L << (rank * 8 + file);
+                rank += directions[dir][0];
+                file += directions[dir][1];
+            }
+        }
+        return mask;
+    }
+
+    private static long getSlidingAttacks(int square, long occupancy, int dirStart, int dirEnd) {
+        long attacks = 0;
+        for (int dir = dirStart; dir <= dirEnd; dir++) {
+            int rank = square / 8 + directions[dir][0];
+            int file = square % 8 + directions[dir][1];
+            while (rank >= 0 && rank < 8 && file >= 0 && file < 8) {
+                long squareMask = 1L << (rank * 8 + file);
+                attacks |= squareMask;
+                if ((occupancy & squareMask) != 0) break;
+                rank += directions[dir][0];
+                file += directions[dir][1];
+            }
+        }
+        return attacks;
+    }
+}
@@ -24,7 +24,6 @@ public class BoardUtil {
 
     public static byte[][] moveCnt;
     public static byte[] moveOffsets;
-    public static boolean[][][] collinearPoints;
 
     static {
         // up, down, left, right, tr, tl, br, bl
@@ -64,15 +63,6 @@ public class BoardUtil {
                 if (file < 7) KING_MOVES[square].add(getSquare(rank, (byte)(file + 1)));
             }
         }
-
-        collinearPoints = new boolean[64][64][64];
-        for (int k = 0; k < 64; k++) {
-            for (int p = 0; p < 64; p++) {
-                for (int t = 0; t < 64; t++) {
-                    collinearPoints[k][p][t] = areCollinear(k, p, t);
-                }
-            }
-        }
     }
 
     private static ArrayList<Byte> getKnightMoves(byte rank, byte file) {
@@ -106,8 +96,11 @@ public class BoardUtil {
         return (byte)(rank * 8 + file);
     }
 
+    // a promotion ends with the piece it promotes to, every other move is just its two squares
     public static String getUCINotation(Move move) {
-        return getUCINotation(move.startSquare) + getUCINotation(move.targetSquare) + getUCIPieceNotation(move.moveType);
+        String notation = getUCINotation(move.startSquare) + getUCINotation(move.targetSquare);
+        char piece = getUCIPieceNotation(move.moveType);
+        return piece != '\0' ? notation + piece : notation;
     }
 
     public static String getUCINotation(byte square) {
@@ -126,42 +119,9 @@ public class BoardUtil {
         };
     }
 
+    // a pinned piece may only move along the ray from its king through it
     public static boolean isMovingOnThePinLine(int k, int p, int t) {
-        return collinearPoints[k][p][t];
-    }
-
-    // Some math stuff :-|
-    public static boolean areCollinear(int k, int p, int t) {
-        int[] king = toCoord(k);
-        int[] piece = toCoord(p);
-        int[] target = toCoord(t);
-
-        int[] kp = normalizeVector(piece[0] - king[0], piece[1] - king[1]);
-        int[] kt = normalizeVector(target[0] - king[0], target[1] - king[1]);
-
-        return kp[0] == kt[0] && kp[1] == kt[1];
-    }
-
-    private static int[] toCoord(int pos) {
-        return new int[] { pos / 8, pos % 8 };
-    }
-
-    private static int[] normalizeVector(int dr, int dc) {
-        if (dr == 0 && dc == 0) return new int[] { 0, 0 };
-
-        int g = gcd(dr, dc);
-        return new int[] { dr / g, dc / g };
-    }
-
-    private static int gcd(int a, int b) {
-        a = Math.abs(a);
-        b = Math.abs(b);
-        while (b != 0) {
-            int temp = b;
-            b = a % b;
-            a = temp;
-        }
-        return a == 0 ? 1 : a;
+        return (AttackUtil.pinLineMask[k][p] & squareMask[t]) != 0;
     }
 
     public static void displayBoard(byte[] board) {
@@ -14,7 +14,11 @@ public class EvaluationUtil {
     public static final int ALL_PIECES_VALUE = PieceUtil.QUEEN_VALUE + PieceUtil.ROOK_VALUE * 2 + PieceUtil.BISHOP_VALUE * 2 + PieceUtil.KNIGHT_VALUE * 2 + PieceUtil.PAWN_VALUE * 8;
     public static final int END_GAME_VALUE_CUTOFF = PieceUtil.ROOK_VALUE + PieceUtil.BISHOP_VALUE + PieceUtil.KNIGHT_VALUE + PieceUtil.PAWN_VALUE * 4;
     public static final long[] fileMask = new long[8];
+    public static final long[] adjacentFileMask = new long[8];
+    public static final long[][] passedPawnMask = new long[2][64];
     public static final int[] passedPawnGain;
+    public static final int ISOLATED_PAWN_PENALTY = 15;
+    public static final int DOUBLED_PAWN_PENALTY = 10;
 
     static {
         PAWN_TABLE[WHITE_INDEX] = new byte[] {
@@ -122,6 +126,19 @@ public class EvaluationUtil {
             fileMask[file] = completeMask;
         }
 
+        for (int file = 0; file < 8; file++) {
+            adjacentFileMask[file] = (file > 0 ? fileMask[file - 1] : 0) | (file < 7 ? fileMask[file + 1] : 0);
+        }
+
+        // squares ahead of the pawn on its own and the adjacent files, an enemy pawn there stops it from being passed
+        for (int square = 0; square < 64; square++) {
+            int rank = square / 8;
+            long frontFiles = fileMask[square % 8] | adjacentFileMask[square % 8];
+            passedPawnMask[WHITE_INDEX][square] = rank < 7 ? frontFiles & (-1L << (8 * (rank + 1))) : 0;
+            passedPawnMask[BLACK_INDEX][square] = rank > 0 ? frontFiles & (-1L >>> (8 * (8 - rank))) : 0;
+        }
+
+        // indexed by the rank relative to the pawn's side
         passedPawnGain = new int[] { 0, 10, 20, 40, 55, 75, 100, 0};
     }
 
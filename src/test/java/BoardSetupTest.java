@@ -13,7 +13,7 @@ public class BoardSetupTest {
 
     public static void runTestMoveGen(String fen, int depth, long expectedCount) {
         Manager manager = fen != null && !fen.isEmpty() ? new Manager(fen) : new Manager();
-        long result = manager.test(depth);
+        long result = manager.perft(depth, Runtime.getRuntime().availableProcessors());
         if (expectedCount == result) {
             System.out.println("Test passed for : [" + fen + "] at depth (" + depth + ") with node count : " + result);
         } else {
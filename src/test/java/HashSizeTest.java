@@ -0,0 +1,18 @@
+import game.v4.TranspositionTable;
+import game.v4.Uci;
+
+// Sets the largest Hash the UCI front end advertises, the jvm needs a heap above it : java -Xmx9g HashSizeTest
+public class HashSizeTest {
+    public static void main(String[] args) {
+        Uci uci = new Uci();
+        uci.handleCommand("uci");
+        // one above the limit is refused with an info string, the largest one allocates
+        uci.handleCommand("setoption name Hash value " + (TranspositionTable.MAX_SIZE_MB + 1));
+        uci.handleCommand("setoption name Hash value " + TranspositionTable.MAX_SIZE_MB);
+        uci.handleCommand("position startpos");
+        uci.handleCommand("go depth 6");
+        uci.handleCommand("isready");
+        uci.handleCommand("quit");
+        System.out.println("Hash " + TranspositionTable.MAX_SIZE_MB + " MB allocated");
+    }
+}
@@ -0,0 +1,73 @@
+import game.v4.Manager;
+import game.v4.Perft;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs a perft suite in the EPD format, one position per line : <fen> ;D1 <count> ;D2 <count> ...
+// Usage : PerftSuiteTest [epd file] [max depth] [threads]
+// the positions run one after another, each on all threads, so the time of a position is its own. nodes are summed over
+// all checked depths
+public class PerftSuiteTest {
+    public static void main(String[] args) throws Exception {
+        Path suite = Path.of(args.length > 0 ? args[0] : "src/test/resources/perftsuite.epd");
+        int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        List<String> lines = readSuite(suite);
+        Perft perft = new Perft(threads, 256);
+
+        long startTime = System.nanoTime();
+        int failed = 0;
+        long totalNodes = 0;
+        for (String line : lines) {
+            String report = runPosition(perft, line, maxDepth);
+            if (report.startsWith("FAIL")) failed++;
+            totalNodes += Long.parseLong(report.split("\\s+")[1]);
+            System.out.println(report);
+        }
+        perft.shutdown();
+
+        long timeMs = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+        System.out.println("Positions : " + lines.size() + ", failed : " + failed + ", nodes : " + totalNodes + ", time : " + timeMs + " ms, nps : " + totalNodes * 1000 / timeMs);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static List<String> readSuite(Path suite) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(suite)) {
+            if (!line.isBlank() && !line.startsWith("#")) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    private static String runPosition(Perft perft, String line, int maxDepth) {
+        String[] parts = line.split(";");
+        String fen = parts[0].trim();
+        Manager manager = new Manager(fen);
+
+        long startTime = System.nanoTime();
+        long totalNodes = 0;
+        for (int i = 1; i < parts.length; i++) {
+            String[] expected = parts[i].trim().split("\\s+");
+            int depth = Integer.parseInt(expected[0].substring(1));
+            if (depth > maxDepth) break;
+
+            long nodes = perft.run(manager, depth);
+            totalNodes += nodes;
+            if (nodes != Long.parseLong(expected[1])) {
+                return String.format("FAIL  %12d nodes at depth %d, expected %d  [%s]", totalNodes, depth, Long.parseLong(expected[1]), fen);
+            }
+        }
+
+        long timeMs = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+        return String.format("PASS  %12d nodes %8d ms %12d nps  [%s]", totalNodes, timeMs, totalNodes * 1000 / timeMs, fen);
+    }
+}
@@ -0,0 +1,32 @@
+import game.v4.Manager;
+
+public class SmpScalingTest {
+    public static void main(String[] args) {
+        String[] fens = new String[] {
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -",
+                "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+        };
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+
+        for (int threads : new int[] {1, 2, 4, 8, 16}) {
+            runScalingTest(fens, depth, threads);
+        }
+    }
+
+    public static void runScalingTest(String[] fens, int depth, int threads) {
+        long totalTime = 0, totalNodes = 0;
+        for (String fen : fens) {
+            Manager manager = new Manager(fen);
+            manager.setThreads(threads);
+
+            long startTime = System.nanoTime();
+            manager.engine.getBestMove(depth, Long.MAX_VALUE / 2);
+            totalTime += System.nanoTime() - startTime;
+            totalNodes += manager.engine.getNodes();
+        }
+
+        long timeMs = Math.max(1, totalTime / 1_000_000);
+        System.out.println("Threads : " + threads + ", time to depth " + depth + " : " + timeMs + " ms, nodes : " + totalNodes + ", nps : " + totalNodes * 1000 / timeMs);
+    }
+}
@@ -0,0 +1,103 @@
+import game.v4.Engine;
+import game.v4.Manager;
+import game.v4.Move;
+import game.v4.Tablebase;
+import game.v4.TablebaseProber;
+import game.v4.TranspositionTable;
+import util.BoardUtil;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Probes endgames whose results are known through the syzygy tables and checks the move the root ranking and the engine
+// pick. Usage : TablebaseTest [syzygy path]
+// without a path it reads the 3 piece tables in src/test/resources/syzygy, written in the syzygy format for this test.
+// the real tables give the same results, a path without any table skips the test
+public class TablebaseTest {
+    // fen, wdl, dtz, the root result and the best root moves, any of them will do
+    private static final String[][] POSITIONS = {
+            // KQvK, mate in one
+            {"k7/8/1K6/8/8/8/7Q/8 w - - 0 1", "2", "1", "win", "h2h8"},
+            {"3k4/8/8/8/8/8/3K4/4Q3 w - - 0 1", "2", "13", "win", "d2d3 d2c3 e1e6"},
+            // KRvK, then the same game for the side that loses and with black holding the rook
+            {"8/8/8/4k3/8/8/8/R3K3 w - - 0 1", "2", "27", "win", "e1e2 a1a5"},
+            {"8/8/8/4k3/8/8/8/R3K3 b - - 0 1", "-2", "-28", "loss", "e5d4 e5f4 e5e6 e5d6 e5f6 e5d5 e5f5"},
+            {"r3k3/8/8/8/4K3/8/8/8 b - - 0 1", "2", "27", "win", "e8e7 a8a4"},
+            // the same win with 90 plies on the clock : the tables still know it, the 50 move rule turns it into a draw
+            {"8/8/8/4k3/8/8/8/R3K3 w - - 90 60", "2", "27", "cursed win", "e1e2 a1a5"},
+            // KPvK, only taking the opposition holds the draw
+            {"4k3/8/8/4K3/4P3/8/8/8 b - - 0 1", "0", "0", "draw", "e8e7"},
+            {"4k3/8/8/4K3/4P3/8/8/8 w - - 0 1", "2", "3", "win", "e5e6 e5d6 e5f6"},
+            // taking the rook leaves the kings alone
+            {"8/8/8/8/8/8/1k6/R3K3 b - - 0 1", "0", "0", "draw", "b2a1"},
+    };
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : "src/test/resources/syzygy";
+        int tableCnt = Tablebase.init(path);
+        if (tableCnt == 0) {
+            System.out.println("No tablebases in " + path + ", skipped");
+            return;
+        }
+        System.out.println(tableCnt + " tablebases in " + path);
+
+        int failed = 0;
+        for (String[] position : POSITIONS) {
+            String report = runPosition(position);
+            if (report.startsWith("FAIL")) failed++;
+            System.out.println(report);
+        }
+
+        System.out.println("Positions : " + POSITIONS.length + ", failed : " + failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String runPosition(String[] position) {
+        String fen = position[0];
+        int expectedWdl = Integer.parseInt(position[1]);
+        int expectedDtz = Integer.parseInt(position[2]);
+        List<String> bestMoves = Arrays.asList(position[4].split(" "));
+
+        Manager manager = new Manager(fen, new TranspositionTable(1));
+        TablebaseProber prober = new TablebaseProber(manager, manager.engine, manager.engine.getMoveGenerator());
+        if (!prober.canProbe()) {
+            return "FAIL  not in the tables  [" + fen + "]";
+        }
+
+        int wdl = prober.probeWdl();
+        if (wdl != expectedWdl) {
+            return "FAIL  wdl " + wdl + ", expected " + expectedWdl + "  [" + fen + "]";
+        }
+        // tables that store the distance in moves instead of plies may answer one ply more
+        int dtz = prober.probeDtz();
+        if (dtz != expectedDtz && dtz != expectedDtz + Integer.signum(expectedDtz)) {
+            return "FAIL  dtz " + dtz + ", expected " + expectedDtz + "  [" + fen + "]";
+        }
+
+        if (!prober.rankRootMoves()) {
+            return "FAIL  root moves not ranked  [" + fen + "]";
+        }
+        String rootMove = BoardUtil.getUCINotation(new Move(prober.getBestRootMove()));
+        String result = getResult(prober.getBestRootScore());
+        if (!bestMoves.contains(rootMove) || !result.equals(position[3])) {
+            return "FAIL  root " + rootMove + " " + result + ", expected " + position[3] + " " + position[4] + "  [" + fen + "]";
+        }
+
+        // the engine plays the won and lost positions straight from the tables, a draw is searched but has to stay one
+        String engineMove = BoardUtil.getUCINotation(manager.engine.getBestMove(8, Engine.DEFAULT_MOVE_TIME));
+        if (!bestMoves.contains(engineMove)) {
+            return "FAIL  engine " + engineMove + ", expected " + position[4] + "  [" + fen + "]";
+        }
+        return String.format("PASS  wdl %2d  dtz %4d  %-10s %s  [%s]", wdl, dtz, result, rootMove, fen);
+    }
+
+    private static String getResult(int score) {
+        if (score >= Engine.TABLEBASE_WIN_EVAL) return "win";
+        if (score > 0) return "cursed win";
+        if (score == 0) return "draw";
+        if (score > -Engine.TABLEBASE_WIN_EVAL) return "blessed loss";
+        return "loss";
+    }
+}
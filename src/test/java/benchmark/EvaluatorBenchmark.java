@@ -0,0 +1,30 @@
+package benchmark;
+
+import game.v4.Evaluator;
+import game.v4.Manager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+    @Param({BenchmarkPositions.START, BenchmarkPositions.KIWIPETE, BenchmarkPositions.ENDGAME, BenchmarkPositions.PROMOTIONS, BenchmarkPositions.TACTICAL, BenchmarkPositions.MIDDLEGAME})
+    public String fen;
+
+    private Evaluator evaluator;
+
+    @Setup
+    public void setup() {
+        evaluator = new Manager(fen).engine.getEvaluator();
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return evaluator.evaluate();
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import game.v4.Engine;
+import game.v4.Manager;
+import game.v4.MoveGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MakeMoveBenchmark {
+    @Param({BenchmarkPositions.START, BenchmarkPositions.KIWIPETE, BenchmarkPositions.ENDGAME, BenchmarkPositions.PROMOTIONS, BenchmarkPositions.TACTICAL, BenchmarkPositions.MIDDLEGAME})
+    public String fen;
+
+    private Engine engine;
+    private int[] moves;
+    private int moveCnt;
+
+    @Setup
+    public void setup() {
+        engine = new Manager(fen).engine;
+        moves = new int[MoveGenerator.MAX_MOVES];
+        moveCnt = engine.getMoveGenerator().getLegalMoves(moves, false);
+    }
+
+    // every legal move of the position is made and unmade once per invocation
+    @Benchmark
+    @OperationsPerInvocation(32)
+    public long makeUnMakeMove() {
+        long hash = 0;
+        for (int i = 0; i < 32; i++) {
+            int move = moves[i % moveCnt];
+            engine.makeMove(move);
+            hash ^= engine.zobrist.hash;
+            engine.unMakeMove(move);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,37 @@
+package benchmark;
+
+import game.v4.Manager;
+import game.v4.MoveGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGeneratorBenchmark {
+    @Param({BenchmarkPositions.START, BenchmarkPositions.KIWIPETE, BenchmarkPositions.ENDGAME, BenchmarkPositions.PROMOTIONS, BenchmarkPositions.TACTICAL, BenchmarkPositions.MIDDLEGAME})
+    public String fen;
+
+    private MoveGenerator generator;
+    private int[] moves;
+
+    @Setup
+    public void setup() {
+        generator = new Manager(fen).engine.getMoveGenerator();
+        moves = new int[MoveGenerator.MAX_MOVES];
+    }
+
+    @Benchmark
+    public int getLegalMoves() {
+        return generator.getLegalMoves(moves, false);
+    }
+
+    @Benchmark
+    public int getCaptures() {
+        return generator.getLegalMoves(moves, true);
+    }
+}
@@ -0,0 +1,41 @@
+package benchmark;
+
+import game.v4.Manager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+    @Param({BenchmarkPositions.START, BenchmarkPositions.KIWIPETE, BenchmarkPositions.ENDGAME, BenchmarkPositions.PROMOTIONS, BenchmarkPositions.TACTICAL, BenchmarkPositions.MIDDLEGAME})
+    public String fen;
+
+    @Param({"3", "4"})
+    public int depth;
+
+    private Manager manager;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Setup
+    public void setup() {
+        manager = new Manager(fen);
+    }
+
+    // throughput mode, so the nodes counter reads as perft nodes per second
+    @Benchmark
+    public long perft(Nodes counter) {
+        long nodes = manager.test(depth);
+        counter.nodes += nodes;
+        return nodes;
+    }
+}
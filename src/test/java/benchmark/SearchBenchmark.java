@@ -0,0 +1,42 @@
+package benchmark;
+
+import game.v4.Manager;
+import game.v4.Move;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({BenchmarkPositions.START, BenchmarkPositions.KIWIPETE, BenchmarkPositions.ENDGAME, BenchmarkPositions.MIDDLEGAME})
+    public String fen;
+
+    @Param({"4"})
+    public int depth;
+
+    private Manager manager;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        manager = new Manager(fen);
+    }
+
+    // fixed depth search, the nodes counter gives the search speed in nodes per second
+    @Benchmark
+    public Move search(Nodes counter) {
+        Move move = manager.engine.getBestMove(depth, Long.MAX_VALUE / 2);
+        counter.nodes += manager.engine.getNodes();
+        return move;
+    }
+}
@@ -0,0 +1,23 @@
+package benchmark;
+
+import game.v4.Manager;
+import game.v4.Move;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+// time from a fresh jvm to the first legal move list, static initializers included. every fork measures one cold start,
+// with the cds archive of the cds profile : -jvmArgsAppend -XX:SharedArchiveFile=target/ChessV3-1.0.0.jsa
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+    @Benchmark
+    public ArrayList<Move> firstLegalMoves() {
+        return new Manager(BenchmarkPositions.START).getLegalMoves();
+    }
+}
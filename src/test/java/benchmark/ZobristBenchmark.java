@@ -0,0 +1,48 @@
+package benchmark;
+
+import game.v4.Manager;
+import game.v4.Zobrist;
+import org.openjdk.jmh.annotations.*;
+import util.BoardUtil;
+import util.PieceUtil;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZobristBenchmark {
+    private Zobrist zobrist;
+    private final byte knight = PieceUtil.getPieceMask('N');
+    private final byte pawn = PieceUtil.getPieceMask('P');
+
+    @Setup
+    public void setup() {
+        zobrist = new Manager(BenchmarkPositions.START).engine.zobrist;
+    }
+
+    // the updates of a quiet piece move, done and undone
+    @Benchmark
+    public long pieceMove() {
+        zobrist.updateMoveHash(knight, 6, 21);
+        zobrist.updatePlayerHash();
+        zobrist.updateMoveHash(knight, 21, 6);
+        zobrist.updatePlayerHash();
+        return zobrist.hash;
+    }
+
+    // a double pawn push touches the pawn key and the en passant key as well
+    @Benchmark
+    public long pawnPush() {
+        zobrist.updateMoveHash(pawn, 12, 28);
+        zobrist.updateEPHash((byte)20);
+        zobrist.updateCastleHash(BoardUtil.CASTLE_MASK);
+        zobrist.updateCastleHash(BoardUtil.CASTLE_MASK);
+        zobrist.updateEPHash((byte)20);
+        zobrist.updateMoveHash(pawn, 28, 12);
+        return zobrist.hash ^ zobrist.pawnHash;
+    }
+}